@@ -0,0 +1,185 @@
+package com.google.code.docbook4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.google.code.docbook4j.cache.CacheStatistics;
+import com.google.code.docbook4j.cache.LruCache;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.vfs2.FileObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Size-bounded in-memory cache of the style sheets inlined by
+ * {@link XSLTUtils}, either as they are or with their {@code @import}s
+ * resolved and minified.
+ * <p>
+ * Entries are keyed by the URI of the style sheet and reused until the
+ * last-modified time of the style sheet or of one of its imports changes.
+ * Style sheets which are not classpath ({@code res:}) or local files, or
+ * import such files, are processed on every call.
+ */
+public final class CssCache {
+
+  private static final Logger log = LoggerFactory.getLogger(CssCache.class);
+
+  private final LruCache<String, CachedCss> styleSheets;
+
+  public CssCache(final long maxBytes) {
+    this.styleSheets =
+        new LruCache<>(maxBytes, styleSheet -> styleSheet.css.length() * 2L);
+  }
+
+  /**
+   * Returns the content of the given style sheet.
+   */
+  public String getCss(final FileObject fileObject) throws IOException {
+    return get(fileObject, false);
+  }
+
+  /**
+   * Returns the content of the given style sheet with the imported style
+   * sheets in place of their {@code @import} rules, minified.
+   */
+  public String getInlinedCss(final FileObject fileObject)
+      throws IOException {
+    return get(fileObject, true);
+  }
+
+  public void clear() {
+    styleSheets.clear();
+  }
+
+  public CacheStatistics getStatistics() {
+    return styleSheets.getStatistics();
+  }
+
+  private String get(final FileObject fileObject, final boolean inline)
+      throws IOException {
+    final String uri = fileObject.getName().getURI();
+    final String key = inline ? "inlined:" + uri : uri;
+    final CachedCss cached = styleSheets.get(key);
+    if (cached != null && cached.isCurrent(fileObject)) {
+      record(cached.dependencies);
+      return cached.css;
+    }
+    final List<Dependency> dependencies = new ArrayList<>();
+    final String css = load(fileObject, inline, dependencies);
+    if (dependencies.stream().allMatch(dependency -> dependency.cacheable)) {
+      styleSheets.put(key, new CachedCss(css, dependencies));
+    }
+    return css;
+  }
+
+  /**
+   * Reads the given style sheet without caching it.
+   */
+  static String load(final FileObject fileObject, final boolean inline,
+      final List<Dependency> dependencies) throws IOException {
+    final String css = read(fileObject, dependencies);
+    if (!inline) {
+      record(dependencies);
+      return css;
+    }
+    final Set<String> visited = new HashSet<>();
+    visited.add(fileObject.getName().getURI());
+    final String inlined = CssProcessor.minify(inline(fileObject, css,
+        dependencies, visited));
+    record(dependencies);
+    return inlined;
+  }
+
+  private static void record(final List<Dependency> dependencies) {
+    for (final Dependency dependency : dependencies) {
+      ResourceTracker.record(dependency.uri, dependency.lastModified);
+    }
+  }
+
+  private static String inline(final FileObject fileObject, final String css,
+      final List<Dependency> dependencies, final Set<String> visited)
+      throws IOException {
+    String text = CssProcessor.stripComments(css);
+    final String baseDir = fileObject.getParent().getName().getURI();
+    for (final CssProcessor.Import imported : CssProcessor
+        .findImports(text)) {
+      final String content;
+      try (final FileObject fo = FileObjectUtils
+          .resolveFile(imported.getHref(), baseDir)) {
+        if (!fo.exists()) {
+          log.warn("Imported css file not found: {}", imported.getHref());
+          continue;
+        }
+        content = visited.add(fo.getName().getURI())
+            ? inline(fo, read(fo, dependencies), dependencies, visited)
+                .replaceAll("@charset\\s+[\"'][^\"']*[\"']\\s*;", "")
+            : "";
+      }
+      text = text.replace(imported.getRule(), imported.getMedia().isEmpty()
+          ? content : "@media " + imported.getMedia() + "{" + content + "}");
+    }
+    return text;
+  }
+
+  private static String read(final FileObject fileObject,
+      final List<Dependency> dependencies) throws IOException {
+    dependencies.add(new Dependency(fileObject.getName().getURI(),
+        fileObject.getContent().getLastModifiedTime(),
+        StylesheetCache.isCacheable(fileObject)));
+    try (final InputStream inputStream = fileObject.getContent()
+        .getInputStream()) {
+      return IOUtils.toString(inputStream);
+    }
+  }
+
+  static final class Dependency {
+
+    private final String uri;
+
+    private final long lastModified;
+
+    private final boolean cacheable;
+
+    private Dependency(final String uri, final long lastModified,
+        final boolean cacheable) {
+      this.uri = uri;
+      this.lastModified = lastModified;
+      this.cacheable = cacheable;
+    }
+  }
+
+  private static final class CachedCss {
+
+    private final String css;
+
+    private final List<Dependency> dependencies;
+
+    private CachedCss(final String css, final List<Dependency> dependencies) {
+      this.css = css;
+      this.dependencies = dependencies;
+    }
+
+    private boolean isCurrent(final FileObject fileObject) throws IOException {
+      if (fileObject.getContent().getLastModifiedTime()
+          != dependencies.get(0).lastModified) {
+        return false;
+      }
+      for (final Dependency dependency : dependencies.subList(1,
+          dependencies.size())) {
+        try (final FileObject fo = FileObjectUtils
+            .resolveFile(dependency.uri)) {
+          if (!fo.exists() || fo.getContent().getLastModifiedTime()
+              != dependency.lastModified) {
+            return false;
+          }
+        }
+      }
+      return true;
+    }
+  }
+
+}
@@ -0,0 +1,287 @@
+package com.google.code.docbook4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Minifies CSS and removes the rules a document does not use.
+ * <p>
+ * Both work on the text of a style sheet without a full CSS parser: strings
+ * and comments are recognized, but the content of rules is kept as it is.
+ */
+final class CssProcessor {
+
+  private static final Pattern IMPORT = Pattern.compile(
+      "@import\\s+(?:url\\(\\s*)?(['\"]?)([^'\")\\s]+)\\1\\s*\\)?\\s*([^;]*);",
+      Pattern.CASE_INSENSITIVE);
+
+  private static final Pattern CLASS_OR_ID =
+      Pattern.compile("([.#])(-?[_a-zA-Z][_a-zA-Z0-9-]*)");
+
+  private static final List<String> GROUPING_RULES =
+      Arrays.asList("@media", "@supports", "@document");
+
+  private CssProcessor() {
+  }
+
+  /**
+   * Returns the {@code @import} rules of the given style sheet, which should
+   * have no comments.
+   */
+  static List<Import> findImports(final String css) {
+    final List<Import> imports = new ArrayList<>();
+    final Matcher matcher = IMPORT.matcher(css);
+    while (matcher.find()) {
+      imports.add(new Import(matcher.group(0), matcher.group(2),
+          matcher.group(3).trim()));
+    }
+    return imports;
+  }
+
+  static String stripComments(final String css) {
+    final StringBuilder out = new StringBuilder(css.length());
+    for (int i = 0; i < css.length(); i++) {
+      final char c = css.charAt(i);
+      if (c == '"' || c == '\'') {
+        i = appendString(css, i, out);
+      } else if (c == '/' && i + 1 < css.length() && css.charAt(i + 1) == '*') {
+        final int end = css.indexOf("*/", i + 2);
+        i = end < 0 ? css.length() : end + 1;
+        out.append(' ');
+      } else {
+        out.append(c);
+      }
+    }
+    return out.toString();
+  }
+
+  /**
+   * Removes comments, redundant whitespace and the last semicolon of each
+   * declaration block.
+   */
+  static String minify(final String css) {
+    final String text = stripComments(css);
+    final StringBuilder out = new StringBuilder(text.length());
+    // whether each open block holds declarations rather than rules
+    final Deque<Boolean> declarations = new ArrayDeque<>();
+    int statement = 0;
+    boolean space = false;
+    for (int i = 0; i < text.length(); i++) {
+      final char c = text.charAt(i);
+      if (Character.isWhitespace(c)) {
+        space = true;
+        continue;
+      }
+      if (space && out.length() > 0 && !isSeparator(c)
+          && !isSeparator(out.charAt(out.length() - 1))
+          && out.charAt(out.length() - 1) != ':'
+          && !(c == ':' && Boolean.TRUE.equals(declarations.peek()))) {
+        out.append(' ');
+      }
+      space = false;
+      if (c == '"' || c == '\'') {
+        i = appendString(text, i, out);
+        continue;
+      }
+      if (c == '{') {
+        declarations.push(!isRuleContainer(out.substring(statement)));
+      } else if (c == '}') {
+        declarations.poll();
+      }
+      if (c == '}' && out.length() > 0
+          && out.charAt(out.length() - 1) == ';') {
+        out.setCharAt(out.length() - 1, '}');
+      } else {
+        out.append(c);
+      }
+      if (c == '{' || c == '}' || c == ';') {
+        statement = out.length();
+      }
+    }
+    return out.toString();
+  }
+
+  private static boolean isRuleContainer(final String prelude) {
+    final String name = prelude.trim().split("[\\s(]", 2)[0].toLowerCase();
+    return GROUPING_RULES.contains(name) || name.endsWith("keyframes");
+  }
+
+  /**
+   * Removes the rules of the given minified style sheet whose selectors all
+   * refer to a class or id not in the given sets. The rules in
+   * {@code @media}, {@code @supports} and {@code @document} blocks are
+   * filtered the same way, other at-rules are always kept.
+   */
+  static String retainUsedRules(final String css, final Set<String> classes,
+      final Set<String> ids) {
+    final StringBuilder out = new StringBuilder(css.length());
+    int i = 0;
+    while (i < css.length()) {
+      final int preludeEnd = find(css, i, "{;");
+      if (preludeEnd < 0) {
+        out.append(css, i, css.length());
+        break;
+      }
+      final String prelude = css.substring(i, preludeEnd).trim();
+      if (css.charAt(preludeEnd) == ';') {
+        out.append(prelude).append(';');
+        i = preludeEnd + 1;
+        continue;
+      }
+      final int blockEnd = findBlockEnd(css, preludeEnd);
+      final String block = css.substring(preludeEnd + 1, blockEnd);
+      i = blockEnd + 1;
+      if (prelude.startsWith("@")) {
+        if (isRuleContainer(prelude)) {
+          final String retained = retainUsedRules(block, classes, ids);
+          if (!retained.isEmpty()) {
+            out.append(prelude).append('{').append(retained).append('}');
+          }
+        } else {
+          out.append(prelude).append('{').append(block).append('}');
+        }
+        continue;
+      }
+      final StringBuilder selectors = new StringBuilder();
+      for (final String selector : splitSelectors(prelude)) {
+        if (isUsed(selector, classes, ids)) {
+          if (selectors.length() > 0) {
+            selectors.append(',');
+          }
+          selectors.append(selector);
+        }
+      }
+      if (selectors.length() > 0) {
+        out.append(selectors).append('{').append(block).append('}');
+      }
+    }
+    return out.toString();
+  }
+
+  private static boolean isUsed(final String selector,
+      final Set<String> classes, final Set<String> ids) {
+    // attribute selectors, strings and pseudo-class arguments do not need to
+    // match the document
+    final String required = selector.replaceAll("\\[[^\\]]*\\]", "")
+        .replaceAll("\\([^)]*\\)", "");
+    final Matcher matcher = CLASS_OR_ID.matcher(required);
+    while (matcher.find()) {
+      final Set<String> names = matcher.group(1).equals(".") ? classes : ids;
+      if (!names.contains(matcher.group(2))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static List<String> splitSelectors(final String prelude) {
+    final List<String> selectors = new ArrayList<>();
+    int depth = 0;
+    int start = 0;
+    for (int i = 0; i < prelude.length(); i++) {
+      final char c = prelude.charAt(i);
+      if (c == '(' || c == '[') {
+        depth++;
+      } else if (c == ')' || c == ']') {
+        depth--;
+      } else if (c == ',' && depth == 0) {
+        selectors.add(prelude.substring(start, i).trim());
+        start = i + 1;
+      }
+    }
+    selectors.add(prelude.substring(start).trim());
+    return selectors;
+  }
+
+  private static boolean isSeparator(final char c) {
+    return c == '{' || c == '}' || c == ';' || c == ',' || c == '>';
+  }
+
+  private static int find(final String css, final int from,
+      final String chars) {
+    for (int i = from; i < css.length(); i++) {
+      final char c = css.charAt(i);
+      if (c == '"' || c == '\'') {
+        i = skipString(css, i);
+      } else if (chars.indexOf(c) >= 0) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int findBlockEnd(final String css, final int open) {
+    int depth = 0;
+    for (int i = open; i < css.length(); i++) {
+      final char c = css.charAt(i);
+      if (c == '"' || c == '\'') {
+        i = skipString(css, i);
+      } else if (c == '{') {
+        depth++;
+      } else if (c == '}' && --depth == 0) {
+        return i;
+      }
+    }
+    return css.length();
+  }
+
+  private static int appendString(final String css, final int start,
+      final StringBuilder out) {
+    final int end = skipString(css, start);
+    out.append(css, start, Math.min(end + 1, css.length()));
+    return end;
+  }
+
+  private static int skipString(final String css, final int start) {
+    final char quote = css.charAt(start);
+    for (int i = start + 1; i < css.length(); i++) {
+      final char c = css.charAt(i);
+      if (c == '\\') {
+        i++;
+      } else if (c == quote) {
+        return i;
+      }
+    }
+    return css.length();
+  }
+
+  /**
+   * An {@code @import} rule.
+   */
+  static final class Import {
+
+    private final String rule;
+
+    private final String href;
+
+    private final String media;
+
+    private Import(final String rule, final String href, final String media) {
+      this.rule = rule;
+      this.href = href;
+      this.media = media;
+    }
+
+    String getRule() {
+      return rule;
+    }
+
+    String getHref() {
+      return href;
+    }
+
+    /**
+     * The media query list of the rule, empty if there is none.
+     */
+    String getMedia() {
+      return media;
+    }
+  }
+
+}
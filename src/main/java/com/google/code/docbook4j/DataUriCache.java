@@ -0,0 +1,96 @@
+package com.google.code.docbook4j;
+
+import java.io.IOException;
+
+import com.google.code.docbook4j.cache.CacheStatistics;
+import com.google.code.docbook4j.cache.LruCache;
+import org.apache.commons.vfs2.FileObject;
+
+/**
+ * Size-bounded in-memory cache of the {@code data:} URIs built by
+ * {@link XSLTUtils#toBase64(String, String)}, so an image inlined into every
+ * page of every document is only read and encoded once.
+ * <p>
+ * Only classpath ({@code res:}) and local images are cached. Entries are
+ * keyed by the absolute URL of the resolved file and the settings of the
+ * {@link ImageRenditions} used, if any, and dropped when the file's
+ * last-modified time changes. Images whose URI would take more than a quarter
+ * of the cache are encoded on every call.
+ */
+public final class DataUriCache {
+
+  private final long maxBytes;
+
+  private final LruCache<String, CachedDataUri> dataUris;
+
+  public DataUriCache(final long maxBytes) {
+    this.maxBytes = maxBytes;
+    this.dataUris = new LruCache<>(maxBytes, dataUri -> weight(dataUri.uri));
+  }
+
+  /**
+   * Returns the {@code data:} URI with the content of the given image,
+   * encoding the image only if it is not cached or changed since it was
+   * cached.
+   */
+  public String getDataUri(final FileObject fileObject) throws IOException {
+    return getDataUri(fileObject, null);
+  }
+
+  /**
+   * Returns the {@code data:} URI with the content of the rendition of the
+   * given image, or of the image itself if no renditions are given.
+   */
+  public String getDataUri(final FileObject fileObject,
+      final ImageRenditions renditions) throws IOException {
+    if (!StylesheetCache.isCacheable(fileObject)) {
+      return XSLTUtils.encodeDataUri(fileObject, renditions);
+    }
+    final String url = fileObject.getURL().toExternalForm();
+    final String key =
+        renditions != null ? url + ' ' + renditions.getSettingsKey() : url;
+    final long lastModified = fileObject.getContent().getLastModifiedTime();
+    CachedDataUri dataUri = dataUris.get(key);
+    if (dataUri == null || dataUri.lastModified != lastModified) {
+      dataUri = new CachedDataUri(
+          XSLTUtils.encodeDataUri(fileObject, renditions), lastModified);
+      if (weight(dataUri.uri) <= maxBytes / 4) {
+        dataUris.put(key, dataUri);
+      }
+    }
+    return dataUri.uri;
+  }
+
+  /**
+   * Drops the URIs of the image with the given absolute URL.
+   */
+  public void invalidate(final String url) {
+    dataUris.removeIf(key -> key.equals(url) || key.startsWith(url + ' '));
+  }
+
+  public void clear() {
+    dataUris.clear();
+  }
+
+  public CacheStatistics getStatistics() {
+    return dataUris.getStatistics();
+  }
+
+  private static long weight(final String uri) {
+    // two bytes per char
+    return uri.length() * 2L;
+  }
+
+  private static final class CachedDataUri {
+
+    private final String uri;
+
+    private final long lastModified;
+
+    private CachedDataUri(final String uri, final long lastModified) {
+      this.uri = uri;
+      this.lastModified = lastModified;
+    }
+  }
+
+}
@@ -0,0 +1,188 @@
+package com.google.code.docbook4j;
+
+import java.io.IOException;
+import java.net.URL;
+
+import com.google.code.docbook4j.cache.ConcurrentCache;
+import org.apache.xml.resolver.Catalog;
+import org.apache.xml.resolver.CatalogManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+
+/**
+ * OASIS XML catalog mapping public and system identifiers of the DocBook
+ * DTDs, and the URIs of the DocBook stylesheets, to the copies bundled with
+ * docbook4j, so documents and stylesheets referring to them by their web
+ * address are resolved locally.
+ * <p>
+ * The bundled catalogs cover the DocBook 5 DTD and the DocBook XSL
+ * stylesheets. Catalogs for other DTDs (e.g. DocBook 4.x) can be added with
+ * {@link #addCatalog(URL)}.
+ * <p>
+ * Resolved identifiers and URIs are remembered until a catalog is added, so
+ * renders running in parallel only take the catalog's lock the first time an
+ * entity or URI is looked up.
+ */
+public final class DocbookCatalog implements EntityResolver {
+
+  private static final Logger log =
+      LoggerFactory.getLogger(DocbookCatalog.class);
+
+  private static final String[] bundledCatalogs =
+      {"xml/docbook/catalog.xml", "xsl/docbook/catalog.xml"};
+
+  private static final DocbookCatalog instance = new DocbookCatalog();
+
+  private static final int MAX_RESOLVED = 4096;
+
+  /**
+   * Stands for an identifier or URI the catalog does not map, as the cache
+   * holds no null values.
+   */
+  private static final String UNMAPPED = "";
+
+  private final Catalog catalog;
+
+  private final String bundledBase;
+
+  private final ConcurrentCache<String, String> resolvedIds =
+      new ConcurrentCache<>(MAX_RESOLVED);
+
+  private final ConcurrentCache<String, String> resolvedUris =
+      new ConcurrentCache<>(MAX_RESOLVED);
+
+  private DocbookCatalog() {
+    final CatalogManager manager = new CatalogManager();
+    manager.setIgnoreMissingProperties(true);
+    manager.setUseStaticCatalog(false);
+    manager.setCatalogFiles("");
+    manager.setPreferPublic(true);
+    manager.setVerbosity(0);
+    catalog = new Catalog(manager);
+    catalog.setupReaders();
+    String base = null;
+    for (final String bundled : bundledCatalogs) {
+      final URL url = DocbookCatalog.class.getClassLoader().getResource(bundled);
+      if (url == null) {
+        log.warn("Bundled catalog not found: {}", bundled);
+        continue;
+      }
+      final String external = url.toExternalForm();
+      base = external.substring(0, external.length() - bundled.length());
+      addCatalog(url);
+    }
+    bundledBase = base;
+  }
+
+  public static DocbookCatalog getInstance() {
+    return instance;
+  }
+
+  /**
+   * Adds the entries of the given catalog. Entries of catalogs added earlier
+   * take precedence.
+   */
+  public synchronized void addCatalog(final URL url) {
+    try {
+      catalog.parseCatalog(url);
+    } catch (final IOException e) {
+      log.error("Error loading catalog: " + url, e);
+    }
+    resolvedIds.clear();
+    resolvedUris.clear();
+  }
+
+  /**
+   * Returns the location of the entity with the given identifiers, or null if
+   * the catalog does not map it.
+   */
+  public String resolveId(final String publicId, final String systemId) {
+    final String key = publicId + ' ' + systemId;
+    String resolved = resolvedIds.get(key);
+    if (resolved == null) {
+      synchronized (this) {
+        resolved = lookupId(publicId, systemId);
+        resolved = resolved != null ? resolved : UNMAPPED;
+        resolvedIds.put(key, resolved);
+      }
+    }
+    return !resolved.isEmpty() ? resolved : null;
+  }
+
+  private String lookupId(final String publicId, final String systemId) {
+    try {
+      if (publicId != null) {
+        return catalog.resolvePublic(publicId, systemId);
+      }
+      return systemId != null ? catalog.resolveSystem(systemId) : null;
+    } catch (final IOException e) {
+      log.debug("Error resolving {} {}", publicId, systemId, e);
+      return null;
+    }
+  }
+
+  /**
+   * Returns the location the given URI is mapped to, or null if the catalog
+   * does not map it. Locations of bundled resources are returned as
+   * {@code res:} URLs.
+   */
+  public String resolveUri(final String uri) {
+    if (uri == null) {
+      return null;
+    }
+    String resolved = resolvedUris.get(uri);
+    if (resolved == null) {
+      synchronized (this) {
+        resolved = lookupUri(uri);
+        resolved = resolved != null ? resolved : UNMAPPED;
+        resolvedUris.put(uri, resolved);
+      }
+    }
+    return !resolved.isEmpty() ? resolved : null;
+  }
+
+  private String lookupUri(final String uri) {
+    try {
+      return toResource(catalog.resolveURI(uri));
+    } catch (final IOException e) {
+      log.debug("Error resolving {}", uri, e);
+      return null;
+    }
+  }
+
+  /**
+   * Resolves mapped entities, and entities referred to from the bundled
+   * resources (e.g. modules of a mapped DTD), to their bundled location. The
+   * returned source is opened by the parser itself.
+   */
+  @Override
+  public InputSource resolveEntity(final String publicId,
+      final String systemId) {
+    String resolved = resolveId(publicId, systemId);
+    if (resolved == null && isBundled(systemId)) {
+      resolved = systemId;
+    }
+    if (resolved == null) {
+      return null;
+    }
+    log.debug("Resolved {} {} from catalog: {}", publicId, systemId, resolved);
+    final InputSource source = new InputSource(resolved);
+    source.setPublicId(publicId);
+    return source;
+  }
+
+  private boolean isBundled(final String location) {
+    return location != null && bundledBase != null
+        && location.startsWith(bundledBase);
+  }
+
+  private String toResource(final String location) {
+    if (isBundled(location)) {
+      return "res:" + location.substring(bundledBase.length());
+    }
+    return location;
+  }
+
+}
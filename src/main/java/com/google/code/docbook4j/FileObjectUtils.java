@@ -32,17 +32,57 @@ public final class FileObjectUtils {
     private static final Logger log = LoggerFactory
             .getLogger(FileObjectUtils.class);
 
-    private static FileSystemManager fsManager;
+    private static final ThreadLocal<VfsContext> boundContext =
+            new ThreadLocal<VfsContext>();
 
-    private static FileSystemOptions fileSystemOptions;
+    private static volatile FileSystemManager fsManager;
+
+    private static volatile FileSystemOptions fileSystemOptions;
 
     private FileObjectUtils() {
     }
 
+    /**
+     * Sets the options used by threads without a bound {@link VfsContext}.
+     */
     public static void setFileSystemOptions(FileSystemOptions options) {
         fileSystemOptions = options;
     }
 
+    /**
+     * Binds the given context to the current thread, so files resolved by this
+     * thread use its manager and options. Returns the previously bound
+     * context, which should be restored with {@link #bind(VfsContext)} once
+     * done; binding null falls back to the default manager.
+     */
+    public static VfsContext bind(VfsContext context) {
+        final VfsContext previous = boundContext.get();
+        if (context != null)
+            boundContext.set(context);
+        else
+            boundContext.remove();
+        return previous;
+    }
+
+    public static FileSystemManager getDefaultManager() {
+        FileSystemManager manager = fsManager;
+        if (manager == null) {
+            synchronized (FileObjectUtils.class) {
+                manager = fsManager;
+                if (manager == null) {
+                    try {
+                        manager = VFS.getManager();
+                    } catch (final FileSystemException e) {
+                        throw new IllegalStateException(
+                                "Error creating file system manager!", e);
+                    }
+                    fsManager = manager;
+                }
+            }
+        }
+        return manager;
+    }
+
     public static FileObject resolveFile(String location, String baseDir)
         throws FileSystemException {
         if (location.toLowerCase().startsWith("res:") || location.toLowerCase()
@@ -60,11 +100,13 @@ public final class FileObjectUtils {
     public static FileObject resolveFile(String location)
         throws FileSystemException {
         log.debug("Resolving file object: {}", location);
-        if (fsManager == null)
-            fsManager = VFS.getManager();
-        if (fileSystemOptions != null)
-            return fsManager.resolveFile(location, fileSystemOptions);
-        return fsManager.resolveFile(location);
+        final VfsContext context = boundContext.get();
+        if (context != null)
+            return context.resolveFile(location);
+        final FileSystemOptions options = fileSystemOptions;
+        if (options != null)
+            return getDefaultManager().resolveFile(location, options);
+        return getDefaultManager().resolveFile(location);
     }
 
 }
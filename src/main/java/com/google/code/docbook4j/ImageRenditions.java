@@ -0,0 +1,437 @@
+package com.google.code.docbook4j;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+import javax.imageio.IIOException;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOInvalidTreeException;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import com.google.code.docbook4j.cache.CacheStatistics;
+import com.google.code.docbook4j.cache.Digests;
+import com.google.code.docbook4j.cache.LruCache;
+import com.google.code.docbook4j.cache.OutputCache;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.vfs2.FileObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.NodeList;
+
+/**
+ * Downscaled renditions of the PNG and JPEG images of a document, so huge
+ * images are neither embedded at full size nor decoded at full size by FOP.
+ * <p>
+ * Images bigger than the maximum size at the target resolution are resampled
+ * to that size and recompressed in their own format. Their resolution
+ * metadata is adjusted, so their intrinsic size, and hence the layout, does
+ * not change. Other images and files are served as they are. Renditions are
+ * stored in a size-bounded directory, keyed by the SHA-256 hash of the source
+ * image and the settings, so they survive restarts and are shared by all
+ * renderers using the same directory. The directory must be dedicated to the
+ * renditions, and not shared with an {@link OutputCache}.
+ * <p>
+ * Instances are immutable and thread-safe; the {@code with} methods return
+ * instances with other settings sharing the same directory, e.g. one per
+ * output format:
+ *
+ * <pre>
+ * ImageRenditions print = ImageRenditions.create(dir, 512 * 1024 * 1024);
+ * ImageRenditions screen = print.withDpi(ImageRenditions.SCREEN_DPI);
+ * </pre>
+ */
+public final class ImageRenditions {
+
+  public static final int PRINT_DPI = 300;
+
+  public static final int SCREEN_DPI = 96;
+
+  private static final Logger log =
+      LoggerFactory.getLogger(ImageRenditions.class);
+
+  // resolution assumed by FOP for images without resolution metadata
+  private static final double DEFAULT_SOURCE_DPI = 72;
+
+  private static final double MM_PER_INCH = 25.4;
+
+  private static final String STANDARD_METADATA = "javax_imageio_1.0";
+
+  private final OutputCache renditions;
+
+  private final LruCache<String, SourceHash> sourceHashes;
+
+  private final LruCache<String, Boolean> originals;
+
+  private final int dpi;
+
+  private final double maxWidth;
+
+  private final double maxHeight;
+
+  private final float jpegQuality;
+
+  private ImageRenditions(final OutputCache renditions,
+      final LruCache<String, SourceHash> sourceHashes,
+      final LruCache<String, Boolean> originals, final int dpi,
+      final double maxWidth, final double maxHeight, final float jpegQuality) {
+    this.renditions = renditions;
+    this.sourceHashes = sourceHashes;
+    this.originals = originals;
+    this.dpi = dpi;
+    this.maxWidth = maxWidth;
+    this.maxHeight = maxHeight;
+    this.jpegQuality = jpegQuality;
+  }
+
+  /**
+   * Creates renditions for print, at {@value #PRINT_DPI} dpi and at most 6.5
+   * by 9 inches, keeping at most the given number of bytes in the given
+   * directory, which must be dedicated to them.
+   */
+  public static ImageRenditions create(final File directory,
+      final long maxBytes) throws IOException {
+    return new ImageRenditions(OutputCache.create(directory, maxBytes),
+        new LruCache<>(4096), new LruCache<>(4096), PRINT_DPI, 6.5, 9, 0.85f);
+  }
+
+  /**
+   * Returns renditions with the given target resolution.
+   */
+  public ImageRenditions withDpi(final int dpi) {
+    if (dpi <= 0) {
+      throw new IllegalArgumentException(
+          "Value of the resolution should be positive!");
+    }
+    return new ImageRenditions(renditions, sourceHashes, originals, dpi,
+        maxWidth, maxHeight, jpegQuality);
+  }
+
+  /**
+   * Returns renditions for images shown at most at the given size in inches,
+   * e.g. the size of the body region of a page.
+   */
+  public ImageRenditions withMaxSize(final double width, final double height) {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException(
+          "Value of the maximum size should be positive!");
+    }
+    return new ImageRenditions(renditions, sourceHashes, originals, dpi,
+        width, height, jpegQuality);
+  }
+
+  /**
+   * Returns renditions recompressing JPEG images with the given quality,
+   * between 0 and 1.
+   */
+  public ImageRenditions withJpegQuality(final float quality) {
+    if (quality <= 0 || quality > 1) {
+      throw new IllegalArgumentException(
+          "Value of the quality should be between 0 and 1!");
+    }
+    return new ImageRenditions(renditions, sourceHashes, originals, dpi,
+        maxWidth, maxHeight, quality);
+  }
+
+  public int getDpi() {
+    return dpi;
+  }
+
+  public double getMaxWidth() {
+    return maxWidth;
+  }
+
+  public double getMaxHeight() {
+    return maxHeight;
+  }
+
+  public float getJpegQuality() {
+    return jpegQuality;
+  }
+
+  /**
+   * Identifies the settings of these renditions in cache keys.
+   */
+  public String getSettingsKey() {
+    return dpi + "dpi " + maxWidth + "x" + maxHeight + "in q" + jpegQuality;
+  }
+
+  /**
+   * Hits, misses and evictions of the rendition directory, and the number of
+   * bytes it holds.
+   */
+  public CacheStatistics getStatistics() {
+    return renditions.getStatistics();
+  }
+
+  /**
+   * Removes all stored renditions.
+   */
+  public void purge() {
+    renditions.purge();
+    originals.clear();
+  }
+
+  /**
+   * Returns the content of the rendition of the given file, or the content of
+   * the file itself if it is no PNG or JPEG image or small enough already.
+   */
+  public InputStream getRendition(final FileObject source) throws IOException {
+    final InputStream in =
+        new BufferedInputStream(source.getContent().getInputStream());
+    boolean served = false;
+    try {
+      final byte[] magic = new byte[XSLTUtils.MAGIC_LENGTH];
+      in.mark(magic.length);
+      final String format = formatName(
+          XSLTUtils.detectImageType(magic, XSLTUtils.read(in, magic)));
+      in.reset();
+      if (format == null) {
+        served = true;
+        return in;
+      }
+
+      byte[] content = null;
+      String hash = getSourceHash(source);
+      if (hash == null) {
+        content = IOUtils.toByteArray(in);
+        hash = Digests.sha256(content);
+        putSourceHash(source, hash);
+      }
+      final String key = Digests.sha256((hash + ' ' + getSettingsKey())
+          .getBytes(StandardCharsets.UTF_8));
+      if (originals.get(key) == null) {
+        final InputStream rendition = renditions.get(key);
+        if (rendition != null) {
+          return rendition;
+        }
+        if (content == null) {
+          content = IOUtils.toByteArray(in);
+        }
+        final byte[] resampled = resample(content, format);
+        if (resampled != null) {
+          renditions.put(key, new ByteArrayInputStream(resampled));
+          return new ByteArrayInputStream(resampled);
+        }
+        originals.put(key, Boolean.TRUE);
+      }
+      if (content != null) {
+        return new ByteArrayInputStream(content);
+      }
+      served = true;
+      return in;
+    } finally {
+      if (!served) {
+        in.close();
+      }
+    }
+  }
+
+  private String getSourceHash(final FileObject source) throws IOException {
+    if (!StylesheetCache.isCacheable(source)) {
+      return null;
+    }
+    final SourceHash hash = sourceHashes.get(source.getName().getURI());
+    return hash != null && hash.lastModified == source.getContent()
+        .getLastModifiedTime() ? hash.hash : null;
+  }
+
+  private void putSourceHash(final FileObject source, final String hash)
+      throws IOException {
+    if (StylesheetCache.isCacheable(source)) {
+      sourceHashes.put(source.getName().getURI(), new SourceHash(hash,
+          source.getContent().getLastModifiedTime()));
+    }
+  }
+
+  /**
+   * Returns the resampled image, or null if the image is small enough or
+   * cannot be decoded (e.g. a CMYK JPEG), so the original is embedded.
+   */
+  private byte[] resample(final byte[] content, final String format)
+      throws IOException {
+    try (final ImageInputStream input = ImageIO
+        .createImageInputStream(new ByteArrayInputStream(content))) {
+      final Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+      if (!readers.hasNext()) {
+        return null;
+      }
+      final ImageReader reader = readers.next();
+      try {
+        reader.setInput(input, true, false);
+        final int width = reader.getWidth(0);
+        final int height = reader.getHeight(0);
+        final double sourceDpi = getResolution(reader.getImageMetadata(0));
+        double scale = Math.min(
+            Math.min(width / sourceDpi, maxWidth) * dpi / width,
+            Math.min(height / sourceDpi, maxHeight) * dpi / height);
+        if (format.equals("jpeg")) {
+          // JFIF only stores whole dots per inch
+          scale = Math.ceil(sourceDpi * scale) / sourceDpi;
+        }
+        if (scale >= 1) {
+          return null;
+        }
+        // decode at no more than twice the target size, halving it from there
+        final ImageReadParam param = reader.getDefaultReadParam();
+        final int subsampling = Math.max(1, (int) (0.5 / scale));
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        final BufferedImage image = reader.read(0, param);
+        log.debug("Resampling {}x{} image by {}", width, height, scale);
+        return write(scale(image, Math.max(1, (int) Math.round(width * scale)),
+            Math.max(1, (int) Math.round(height * scale)),
+            format.equals("png") && image.getColorModel().hasAlpha()),
+            format, sourceDpi * scale);
+      } catch (final IIOException | RuntimeException e) {
+        log.warn("Error resampling image, embedding the original", e);
+        return null;
+      } finally {
+        reader.dispose();
+      }
+    }
+  }
+
+  /**
+   * Scales the given image down in steps of at most a half, which keeps
+   * bilinear interpolation from skipping pixels.
+   */
+  private static BufferedImage scale(final BufferedImage image,
+      final int width, final int height, final boolean alpha) {
+    BufferedImage scaled = image;
+    int w = image.getWidth();
+    int h = image.getHeight();
+    do {
+      w = Math.max(width, w / 2);
+      h = Math.max(height, h / 2);
+      final BufferedImage step = new BufferedImage(w, h,
+          alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+      final Graphics2D graphics = step.createGraphics();
+      try {
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+            RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.setRenderingHint(RenderingHints.KEY_RENDERING,
+            RenderingHints.VALUE_RENDER_QUALITY);
+        graphics.drawImage(scaled, 0, 0, w, h, null);
+      } finally {
+        graphics.dispose();
+      }
+      scaled = step;
+    } while (w != width || h != height);
+    return scaled;
+  }
+
+  private byte[] write(final BufferedImage image, final String format,
+      final double resolution) throws IOException {
+    final ImageWriter writer =
+        ImageIO.getImageWritersByFormatName(format).next();
+    try {
+      final ImageWriteParam param = writer.getDefaultWriteParam();
+      if (format.equals("jpeg")) {
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(jpegQuality);
+      }
+      final IIOMetadata metadata = writer.getDefaultImageMetadata(
+          new ImageTypeSpecifier(image), param);
+      setResolution(metadata, format, resolution);
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      try (final ImageOutputStream output =
+          ImageIO.createImageOutputStream(out)) {
+        writer.setOutput(output);
+        writer.write(null, new IIOImage(image, null, metadata), param);
+      }
+      return out.toByteArray();
+    } finally {
+      writer.dispose();
+    }
+  }
+
+  private static double getResolution(final IIOMetadata metadata) {
+    if (metadata == null || !metadata.isStandardMetadataFormatSupported()) {
+      return DEFAULT_SOURCE_DPI;
+    }
+    final NodeList sizes = ((IIOMetadataNode) metadata
+        .getAsTree(STANDARD_METADATA))
+        .getElementsByTagName("HorizontalPixelSize");
+    if (sizes.getLength() == 0) {
+      return DEFAULT_SOURCE_DPI;
+    }
+    final double size = Double.parseDouble(
+        ((IIOMetadataNode) sizes.item(0)).getAttribute("value"));
+    return size > 0 ? MM_PER_INCH / size : DEFAULT_SOURCE_DPI;
+  }
+
+  /**
+   * Sets the resolution in the native metadata of the format, as the PNG
+   * writer of some JDKs stores the standard pixel size inverted.
+   */
+  private static void setResolution(final IIOMetadata metadata,
+      final String format, final double dpi) {
+    final String nativeFormat = metadata.getNativeMetadataFormatName();
+    final IIOMetadataNode root =
+        (IIOMetadataNode) metadata.getAsTree(nativeFormat);
+    try {
+      if (format.equals("png")) {
+        final IIOMetadataNode physical = new IIOMetadataNode("pHYs");
+        final String pixelsPerMeter =
+            Long.toString(Math.round(dpi * 1000 / MM_PER_INCH));
+        physical.setAttribute("pixelsPerUnitXAxis", pixelsPerMeter);
+        physical.setAttribute("pixelsPerUnitYAxis", pixelsPerMeter);
+        physical.setAttribute("unitSpecifier", "meter");
+        root.appendChild(physical);
+      } else {
+        final NodeList jfif = root.getElementsByTagName("app0JFIF");
+        if (jfif.getLength() == 0) {
+          return;
+        }
+        final IIOMetadataNode density = (IIOMetadataNode) jfif.item(0);
+        final String dotsPerInch = Long.toString(Math.max(1, Math.round(dpi)));
+        density.setAttribute("resUnits", "1");
+        density.setAttribute("Xdensity", dotsPerInch);
+        density.setAttribute("Ydensity", dotsPerInch);
+      }
+      metadata.setFromTree(nativeFormat, root);
+    } catch (final IIOInvalidTreeException e) {
+      log.warn("Error setting image resolution", e);
+    }
+  }
+
+  private static String formatName(final String mimeType) {
+    if ("image/png".equals(mimeType)) {
+      return "png";
+    }
+    if ("image/jpeg".equals(mimeType)) {
+      return "jpeg";
+    }
+    return null;
+  }
+
+  private static final class SourceHash {
+
+    private final String hash;
+
+    private final long lastModified;
+
+    private SourceHash(final String hash, final long lastModified) {
+      this.hash = hash;
+      this.lastModified = lastModified;
+    }
+  }
+
+}
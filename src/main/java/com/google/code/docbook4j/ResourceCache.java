@@ -0,0 +1,205 @@
+package com.google.code.docbook4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.google.code.docbook4j.cache.CacheStatistics;
+import com.google.code.docbook4j.cache.LruCache;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.vfs2.FileObject;
+
+/**
+ * Size-bounded cache of the fonts and images read by FOP through
+ * {@link VfsResourceResolver}.
+ * <p>
+ * Entries are keyed by the full URI of the resource and dropped when its
+ * last-modified time changes. Local files are memory-mapped instead of being
+ * copied to the heap, so they are read from the page cache without copying;
+ * such files should be replaced (e.g. moved over) rather than rewritten in
+ * place while they are cached. Other classpath ({@code res:}) and local
+ * resources (jar and zip files) are cached on the heap. Resources bigger than
+ * a quarter of the cache are read on every request.
+ */
+public final class ResourceCache {
+
+  private static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+  private static final ResourceCache instance =
+      new ResourceCache(DEFAULT_MAX_BYTES);
+
+  private final long maxBytes;
+
+  private final LruCache<String, CachedResource> resources;
+
+  public ResourceCache(final long maxBytes) {
+    this.maxBytes = maxBytes;
+    this.resources =
+        new LruCache<>(maxBytes, resource -> resource.content.capacity());
+  }
+
+  /**
+   * The cache used by {@link VfsResourceResolver} by default.
+   */
+  public static ResourceCache getInstance() {
+    return instance;
+  }
+
+  /**
+   * Returns the content of the given local file, mapping the file into
+   * memory if it is not cached or changed since it was cached. Files too big
+   * to be cached are read as a stream.
+   */
+  public InputStream getFile(final Path path) throws IOException {
+    final String key = path.toUri().toString();
+    final long lastModified = Files.getLastModifiedTime(path).toMillis();
+    final CachedResource cached = get(key, lastModified);
+    if (cached != null) {
+      return new ByteBufferInputStream(cached.content);
+    }
+    if (Files.size(path) > maxBytes / 4) {
+      return Files.newInputStream(path);
+    }
+    final ByteBuffer content;
+    try (final FileChannel channel =
+        FileChannel.open(path, StandardOpenOption.READ)) {
+      content = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    put(key, new CachedResource(content, lastModified));
+    return new ByteBufferInputStream(content);
+  }
+
+  /**
+   * Returns the content of the given file, or of its rendition if renditions
+   * are given, reading it only if it is not cached or changed since it was
+   * cached.
+   */
+  public InputStream getContent(final FileObject fileObject,
+      final ImageRenditions renditions) throws IOException {
+    if (!StylesheetCache.isCacheable(fileObject)) {
+      return renditions != null ? renditions.getRendition(fileObject)
+          : fileObject.getContent().getInputStream();
+    }
+    final String uri = fileObject.getName().getURI();
+    final String key =
+        renditions != null ? uri + ' ' + renditions.getSettingsKey() : uri;
+    final long lastModified = fileObject.getContent().getLastModifiedTime();
+    final CachedResource cached = get(key, lastModified);
+    if (cached != null) {
+      return new ByteBufferInputStream(cached.content);
+    }
+    final ByteBuffer content;
+    try (final InputStream in = renditions != null ?
+        renditions.getRendition(fileObject) :
+        fileObject.getContent().getInputStream()) {
+      content = ByteBuffer.wrap(IOUtils.toByteArray(in));
+    }
+    put(key, new CachedResource(content, lastModified));
+    return new ByteBufferInputStream(content);
+  }
+
+  /**
+   * Drops the cached content of the resource with the given URI.
+   */
+  public void invalidate(final String uri) {
+    resources.removeIf(key -> key.equals(uri) || key.startsWith(uri + ' '));
+  }
+
+  public void clear() {
+    resources.clear();
+  }
+
+  public CacheStatistics getStatistics() {
+    return resources.getStatistics();
+  }
+
+  private CachedResource get(final String key, final long lastModified) {
+    final CachedResource cached = resources.get(key);
+    if (cached != null && cached.lastModified != lastModified) {
+      resources.remove(key);
+      return null;
+    }
+    return cached;
+  }
+
+  private void put(final String key, final CachedResource resource) {
+    if (resource.content.capacity() <= maxBytes / 4) {
+      resources.put(key, resource);
+    }
+  }
+
+  private static final class CachedResource {
+
+    private final ByteBuffer content;
+
+    private final long lastModified;
+
+    private CachedResource(final ByteBuffer content, final long lastModified) {
+      this.content = content;
+      this.lastModified = lastModified;
+    }
+  }
+
+  /**
+   * Reads a shared buffer through its own position.
+   */
+  private static final class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+
+    private ByteBufferInputStream(final ByteBuffer content) {
+      this.buffer = content.duplicate();
+      this.buffer.rewind();
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      final int n = Math.min(len, buffer.remaining());
+      buffer.get(b, off, n);
+      return n;
+    }
+
+    @Override
+    public long skip(final long n) {
+      final int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+      buffer.position(buffer.position() + skipped);
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+      return true;
+    }
+
+    @Override
+    public synchronized void mark(final int readLimit) {
+      buffer.mark();
+    }
+
+    @Override
+    public synchronized void reset() {
+      buffer.reset();
+    }
+  }
+
+}
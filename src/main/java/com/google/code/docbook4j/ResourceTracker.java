@@ -0,0 +1,122 @@
+package com.google.code.docbook4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.vfs2.FileObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records the resources read while a document is transformed, besides the
+ * document and the stylesheets: style sheets and images inlined by
+ * {@link XSLTUtils}, and fonts and images read by FOP through
+ * {@link VfsResourceResolver}.
+ * <p>
+ * A tracker is bound to the rendering thread for the duration of a render,
+ * and the recorded last-modified times tell whether its output is still
+ * current. Resources kept in FOP's own caches (e.g. fonts set up by the
+ * user configuration) are only recorded by the render which read them.
+ */
+public final class ResourceTracker {
+
+  private static final Logger log =
+      LoggerFactory.getLogger(ResourceTracker.class);
+
+  private static final ThreadLocal<ResourceTracker> bound =
+      new ThreadLocal<>();
+
+  /**
+   * Stands for a last-modified time which could not be determined, so the
+   * resource is never considered unchanged.
+   */
+  private static final long UNKNOWN = -1;
+
+  private final Map<String, Long> resources = new TreeMap<>();
+
+  /**
+   * Makes the current thread record the resources it reads in the given
+   * tracker. Returns the previously bound tracker, which should be restored
+   * once done; binding null stops recording.
+   */
+  public static ResourceTracker bind(final ResourceTracker tracker) {
+    final ResourceTracker previous = bound.get();
+    if (tracker != null) {
+      bound.set(tracker);
+    } else {
+      bound.remove();
+    }
+    return previous;
+  }
+
+  /**
+   * The URIs of the recorded resources with their last-modified times.
+   */
+  public synchronized Map<String, Long> getResources() {
+    return Collections.unmodifiableMap(new TreeMap<>(resources));
+  }
+
+  /**
+   * Returns true if none of the given resources changed since they were
+   * recorded.
+   */
+  public static boolean isUnchanged(final Map<String, Long> resources) {
+    for (final Map.Entry<String, Long> entry : resources.entrySet()) {
+      try (final FileObject fo = FileObjectUtils
+          .resolveFile(entry.getKey())) {
+        if (entry.getValue() == UNKNOWN || !fo.exists()
+            || fo.getContent().getLastModifiedTime() != entry.getValue()) {
+          return false;
+        }
+      } catch (final IOException e) {
+        log.debug("Error checking {}", entry.getKey(), e);
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static void record(final FileObject fileObject) {
+    final ResourceTracker tracker = bound.get();
+    if (tracker == null) {
+      return;
+    }
+    long lastModified;
+    try {
+      lastModified = fileObject.getContent().getLastModifiedTime();
+    } catch (final IOException e) {
+      lastModified = UNKNOWN;
+    }
+    tracker.put(fileObject.getName().getURI(), lastModified);
+  }
+
+  static void record(final Path path) {
+    final ResourceTracker tracker = bound.get();
+    if (tracker == null) {
+      return;
+    }
+    long lastModified;
+    try {
+      lastModified = Files.getLastModifiedTime(path).toMillis();
+    } catch (final IOException e) {
+      lastModified = UNKNOWN;
+    }
+    tracker.put(path.toUri().toString(), lastModified);
+  }
+
+  static void record(final String uri, final long lastModified) {
+    final ResourceTracker tracker = bound.get();
+    if (tracker != null) {
+      tracker.put(uri, lastModified);
+    }
+  }
+
+  private synchronized void put(final String uri, final long lastModified) {
+    resources.put(uri, lastModified);
+  }
+
+}
@@ -0,0 +1,89 @@
+package com.google.code.docbook4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+
+import com.google.code.docbook4j.cache.CacheStatistics;
+import com.google.code.docbook4j.cache.LruCache;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+
+/**
+ * Size-bounded in-memory cache of stylesheet bytes, used by
+ * {@link XslURIResolver} to serve {@code xsl:import}, {@code xsl:include} and
+ * {@code document()} lookups without reopening VFS streams.
+ * <p>
+ * Only classpath ({@code res:}) and local stylesheets (file, jar and zip
+ * files) are cached. Entries are keyed by the absolute URL of the resolved
+ * file and dropped when its last-modified time changes.
+ */
+public final class StylesheetCache {
+
+  private static final String[] cacheableProtocols =
+      {"file", "jar", "zip", "res"};
+
+  private final LruCache<String, CachedStylesheet> stylesheets;
+
+  public StylesheetCache(final long maxBytes) {
+    this.stylesheets =
+        new LruCache<>(maxBytes, stylesheet -> stylesheet.content.length);
+  }
+
+  public static boolean isCacheable(final FileObject fileObject)
+      throws FileSystemException {
+    final String protocol = fileObject.getURL().getProtocol();
+    for (final String cacheable : cacheableProtocols) {
+      if (cacheable.equalsIgnoreCase(protocol)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns an in-memory source with the content of the given file, reading
+   * the file only if it is not cached or changed since it was cached.
+   */
+  public Source getSource(final FileObject fileObject)
+      throws FileSystemException {
+    final String url = fileObject.getURL().toExternalForm();
+    final long lastModified = fileObject.getContent().getLastModifiedTime();
+    CachedStylesheet stylesheet = stylesheets.get(url);
+    if (stylesheet == null || stylesheet.lastModified != lastModified) {
+      try (final InputStream in = fileObject.getContent().getInputStream()) {
+        stylesheet =
+            new CachedStylesheet(IOUtils.toByteArray(in), lastModified);
+      } catch (final IOException e) {
+        throw new FileSystemException(e);
+      }
+      stylesheets.put(url, stylesheet);
+    }
+    return new StreamSource(new ByteArrayInputStream(stylesheet.content), url);
+  }
+
+  public void clear() {
+    stylesheets.clear();
+  }
+
+  public CacheStatistics getStatistics() {
+    return stylesheets.getStatistics();
+  }
+
+  private static final class CachedStylesheet {
+
+    private final byte[] content;
+
+    private final long lastModified;
+
+    private CachedStylesheet(final byte[] content, final long lastModified) {
+      this.content = content;
+      this.lastModified = lastModified;
+    }
+  }
+
+}
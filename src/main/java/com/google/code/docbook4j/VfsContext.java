@@ -0,0 +1,91 @@
+package com.google.code.docbook4j;
+
+import org.apache.commons.vfs2.CacheStrategy;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileSystemManager;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.FilesCache;
+import org.apache.commons.vfs2.impl.StandardFileSystemManager;
+
+/**
+ * The file system manager and options used to resolve the files of a render.
+ * <p>
+ * A context is bound to the rendering thread for the duration of a render
+ * (see {@link FileObjectUtils#bind(VfsContext)}), so concurrent renders with
+ * different options do not interfere. Contexts created with
+ * {@link #withOptions(FileSystemOptions)} share the default VFS manager;
+ * contexts created with {@link #create} own a manager with the given cache
+ * strategy and files cache, which is released by {@link #close()}.
+ */
+public final class VfsContext implements AutoCloseable {
+
+  private final FileSystemManager manager;
+
+  private final FileSystemOptions options;
+
+  private final boolean ownsManager;
+
+  private VfsContext(final FileSystemManager manager,
+      final FileSystemOptions options, final boolean ownsManager) {
+    this.manager = manager;
+    this.options = options;
+    this.ownsManager = ownsManager;
+  }
+
+  /**
+   * Creates a context resolving files with the default VFS manager and the
+   * given options.
+   */
+  public static VfsContext withOptions(final FileSystemOptions options) {
+    return new VfsContext(FileObjectUtils.getDefaultManager(), options, false);
+  }
+
+  /**
+   * Creates a context with its own file system manager.
+   *
+   * @param options       options used for every resolved file, may be null
+   * @param cacheStrategy when resolved files are refreshed, or null for the
+   *                      VFS default
+   * @param filesCache    cache of resolved file objects, or null for the VFS
+   *                      default
+   */
+  public static VfsContext create(final FileSystemOptions options,
+      final CacheStrategy cacheStrategy, final FilesCache filesCache)
+      throws FileSystemException {
+    final StandardFileSystemManager manager = new StandardFileSystemManager();
+    if (cacheStrategy != null) {
+      manager.setCacheStrategy(cacheStrategy);
+    }
+    if (filesCache != null) {
+      manager.setFilesCache(filesCache);
+    }
+    manager.init();
+    return new VfsContext(manager, options, true);
+  }
+
+  public FileSystemManager getManager() {
+    return manager;
+  }
+
+  public FileSystemOptions getOptions() {
+    return options;
+  }
+
+  public FileObject resolveFile(final String location)
+      throws FileSystemException {
+    return options != null ? manager.resolveFile(location, options) :
+        manager.resolveFile(location);
+  }
+
+  /**
+   * Releases the file system manager, if this context owns one.
+   */
+  @Override
+  public void close() {
+    if (ownsManager) {
+      ((StandardFileSystemManager) manager).close();
+    }
+  }
+
+}
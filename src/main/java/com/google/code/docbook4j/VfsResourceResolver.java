@@ -19,7 +19,12 @@ package com.google.code.docbook4j;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
 import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
 import org.apache.xmlgraphics.io.Resource;
 import org.apache.xmlgraphics.io.ResourceResolver;
 
@@ -30,15 +35,81 @@ import org.apache.xmlgraphics.io.ResourceResolver;
  */
 public class VfsResourceResolver implements ResourceResolver {
 
+  private static volatile ResourceCache resourceCache =
+      ResourceCache.getInstance();
+
+  private final String baseUri;
+
+  private final ImageRenditions imageRenditions;
+
+  public VfsResourceResolver() {
+    this(null, null);
+  }
+
+  /**
+   * Creates a resolver resolving relative URIs against the given base, which
+   * FOP cannot do for bases such as {@code zip:} URIs, and serving renditions
+   * of the images instead of the images, if renditions are given.
+   */
+  public VfsResourceResolver(final String baseUri,
+      final ImageRenditions imageRenditions) {
+    this.baseUri = baseUri;
+    this.imageRenditions = imageRenditions;
+  }
+
+  /**
+   * Sets the cache of resources used by all resolvers, or disables caching
+   * if null. The {@linkplain ResourceCache#getInstance() default} cache
+   * holds up to 64MB.
+   */
+  public static void setResourceCache(final ResourceCache cache) {
+    resourceCache = cache;
+  }
+
+  public static ResourceCache getResourceCache() {
+    return resourceCache;
+  }
+
   public Resource getResource(final URI uri) throws IOException {
-    final FileObject urlFileObject = FileObjectUtils.resolveFile(uri.getPath());
+    final ResourceCache cache = resourceCache;
+    if (cache != null && imageRenditions == null
+        && "file".equalsIgnoreCase(uri.getScheme())) {
+      final Path path = toPath(uri);
+      if (path != null) {
+        ResourceTracker.record(path);
+        return new Resource(cache.getFile(path));
+      }
+    }
+    final FileObject urlFileObject = resolveFile(uri);
+    ResourceTracker.record(urlFileObject);
+    if (cache != null) {
+      return new Resource(cache.getContent(urlFileObject, imageRenditions));
+    }
+    if (imageRenditions != null) {
+      return new Resource(imageRenditions.getRendition(urlFileObject));
+    }
     return new Resource(urlFileObject.getContent().getInputStream());
   }
 
   public OutputStream getOutputStream(final URI uri) throws IOException {
-    final FileObject urlFileObject =
-        FileObjectUtils.resolveFile(uri.getPath());
+    final FileObject urlFileObject = resolveFile(uri);
     return urlFileObject.getContent().getOutputStream();
   }
 
+  private FileObject resolveFile(final URI uri) throws FileSystemException {
+    if (!uri.isAbsolute() && baseUri != null) {
+      return FileObjectUtils.resolveFile(uri.toString(), baseUri);
+    }
+    return FileObjectUtils.resolveFile(uri.toString());
+  }
+
+  private static Path toPath(final URI uri) {
+    try {
+      return Paths.get(uri);
+    } catch (final IllegalArgumentException | FileSystemNotFoundException e) {
+      // e.g. a file URI with a host, left to VFS
+      return null;
+    }
+  }
+
 }
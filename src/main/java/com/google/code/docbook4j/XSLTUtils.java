@@ -16,25 +16,111 @@
 
 package com.google.code.docbook4j;
 
+import java.io.BufferedInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.vfs2.FileContent;
 import org.apache.commons.vfs2.FileObject;
-import org.apache.xerces.impl.dv.util.Base64;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
 
 public class XSLTUtils {
 
     private static final Logger log = LoggerFactory.getLogger(XSLTUtils.class);
 
+    static final int MAGIC_LENGTH = 256;
+
+    /**
+     * Classes the xhtml DocBook stylesheets give to the elements they
+     * generate rather than copy from the source.
+     */
+    private static final Set<String> GENERATED_CLASSES = new HashSet<>(
+        Arrays.asList("added", "annotation-body", "annotation-close",
+            "annotation-list", "annotation-nocss", "annotation-popup",
+            "annotation-title", "attribution", "auto-generated",
+            "blockquote-title", "changed", "deleted", "directory", "editedby",
+            "float", "footnote-hr", "footnotes", "formalpara-title",
+            "funcprototype-spacer", "funcprototype-table", "hl-annotation",
+            "hl-attribute", "hl-comment", "hl-directive", "hl-keyword",
+            "hl-number", "hl-string", "hl-tag", "hl-value", "indexdiv",
+            "legalnotice-title", "list-of-equations", "list-of-examples",
+            "list-of-figures", "list-of-procedures", "list-of-tables",
+            "longdesc-link", "msgaud-title", "msgexplan-title",
+            "msglevel-title", "msgmain-title", "msgorig-title",
+            "msgrel-title", "msgsub-title", "navfooter", "navheader",
+            "oddrow", "off", "olinkdocname", "paramdef-list", "refentrytitle",
+            "refpurpose", "remark", "segtitle", "subtitle", "title",
+            "titlepage", "toc", "toc-title", "xmlpi"));
+
+    private static final ThreadLocal<ImageRenditions> boundRenditions =
+        new ThreadLocal<>();
+
+    private static volatile DataUriCache dataUriCache =
+        new DataUriCache(16L * 1024 * 1024);
+
+    private static volatile CssCache cssCache = new CssCache(4L * 1024 * 1024);
+
+    /**
+     * Sets the cache of inlined images used by {@link #toBase64}, or disables
+     * caching if null. The default cache holds up to 16MB.
+     */
+    public static void setDataUriCache(final DataUriCache cache) {
+        dataUriCache = cache;
+    }
+
+    public static DataUriCache getDataUriCache() {
+        return dataUriCache;
+    }
+
+    /**
+     * Makes {@link #toBase64} inline renditions of the images instead of the
+     * images when called by the current thread, e.g. while it renders a
+     * document. Returns the previously bound renditions, which should be
+     * restored once done; binding null inlines the images themselves.
+     */
+    public static ImageRenditions bindImageRenditions(
+        final ImageRenditions renditions) {
+        final ImageRenditions previous = boundRenditions.get();
+        if (renditions != null)
+            boundRenditions.set(renditions);
+        else
+            boundRenditions.remove();
+        return previous;
+    }
+
+    /**
+     * Sets the cache of style sheets used by {@link #dumpCss},
+     * {@link #inlineCss} and {@link #inlineUsedCss}, or disables caching if
+     * null. The default cache holds up to 4MB.
+     */
+    public static void setCssCache(final CssCache cache) {
+        cssCache = cache;
+    }
+
+    public static CssCache getCssCache() {
+        return cssCache;
+    }
+
     public static String toBase64(final String baseDir, final String location) {
         try (final FileObject fo = FileObjectUtils
-            .resolveFile(location, baseDir);
-            final InputStream inputStream = fo.getContent().getInputStream()) {
-            return String
-                .format("data:%s;base64,%s", determineMimeType(location),
-                    Base64.encode(IOUtils.toByteArray(inputStream)));
+            .resolveFile(location, baseDir)) {
+            ResourceTracker.record(fo);
+            final DataUriCache cache = dataUriCache;
+            final ImageRenditions renditions = boundRenditions.get();
+            return cache != null ? cache.getDataUri(fo, renditions)
+                : encodeDataUri(fo, renditions);
         } catch (Exception e) {
             log.error("Error reading image file: " + location, e);
         }
@@ -43,16 +129,165 @@ public class XSLTUtils {
 
     public static String dumpCss(final String baseDir, final String location) {
         try (final FileObject fo = FileObjectUtils
-            .resolveFile(location, baseDir);
-            final InputStream inputStream = fo.getContent().getInputStream()) {
-            return String
-                .format("<!--\n%s\n-->\n", IOUtils.toString(inputStream));
+            .resolveFile(location, baseDir)) {
+            final CssCache cache = cssCache;
+            final String css = cache != null ? cache.getCss(fo)
+                : CssCache.load(fo, false, new ArrayList<>());
+            return String.format("<!--\n%s\n-->\n", css);
+        } catch (Exception e) {
+            log.error("Error reading css file: " + location, e);
+        }
+        return "";
+    }
+
+    /**
+     * Like {@link #dumpCss}, but with the imported style sheets inlined and
+     * the result minified.
+     */
+    public static String inlineCss(final String baseDir,
+        final String location) {
+        try (final FileObject fo = FileObjectUtils
+            .resolveFile(location, baseDir)) {
+            return String.format("<!--\n%s\n-->\n", inlinedCss(fo));
+        } catch (Exception e) {
+            log.error("Error reading css file: " + location, e);
+        }
+        return "";
+    }
+
+    /**
+     * Like {@link #inlineCss}, but only with the rules which may apply to the
+     * given nodes: rules whose selectors all need a class or id which none of
+     * the elements has are left out. Element names and role attributes count
+     * as classes, as the DocBook stylesheets turn them into classes, and the
+     * classes of the elements the stylesheets generate (such as
+     * {@code titlepage}, {@code toc} or {@code navheader}) are always kept.
+     */
+    public static String inlineUsedCss(final String baseDir,
+        final String location, final NodeList nodes) {
+        try (final FileObject fo = FileObjectUtils
+            .resolveFile(location, baseDir)) {
+            final Set<String> classes = new HashSet<>(GENERATED_CLASSES);
+            final Set<String> ids = new HashSet<>();
+            for (int i = 0; i < nodes.getLength(); i++) {
+                collectNames(nodes.item(i), classes, ids);
+            }
+            return String.format("<!--\n%s\n-->\n", CssProcessor
+                .retainUsedRules(inlinedCss(fo), classes, ids));
         } catch (Exception e) {
             log.error("Error reading css file: " + location, e);
         }
         return "";
     }
 
+    private static String inlinedCss(final FileObject fo) throws IOException {
+        final CssCache cache = cssCache;
+        return cache != null ? cache.getInlinedCss(fo)
+            : CssCache.load(fo, true, new ArrayList<>());
+    }
+
+    private static void collectNames(final Node node, final Set<String> classes,
+        final Set<String> ids) {
+        if (node.getNodeType() == Node.ELEMENT_NODE) {
+            final String element = localName(node);
+            classes.add(element);
+            // wrappers of formal objects, e.g. table-contents
+            classes.add(element + "-contents");
+            classes.add(element + "-break");
+            final NamedNodeMap attributes = node.getAttributes();
+            for (int i = 0; i < attributes.getLength(); i++) {
+                final Node attribute = attributes.item(i);
+                final String name = localName(attribute);
+                if (name.equals("class") || name.equals("role")) {
+                    classes.addAll(Arrays.asList(
+                        attribute.getNodeValue().trim().split("\\s+")));
+                } else if (name.equals("id")) {
+                    ids.add(attribute.getNodeValue());
+                }
+            }
+        }
+        for (Node child = node.getFirstChild(); child != null;
+            child = child.getNextSibling()) {
+            collectNames(child, classes, ids);
+        }
+    }
+
+    private static String localName(final Node node) {
+        final String name = node.getLocalName() != null ? node.getLocalName()
+            : node.getNodeName();
+        return name.substring(name.indexOf(':') + 1);
+    }
+
+    /**
+     * Encodes the content of the given file, or of its rendition if
+     * renditions are given, as a {@code data:} URI, streaming it through the
+     * encoder instead of loading it first.
+     */
+    static String encodeDataUri(final FileObject fo,
+        final ImageRenditions renditions) throws IOException {
+        final FileContent content = fo.getContent();
+        try (final InputStream inputStream = new BufferedInputStream(
+            renditions != null ? renditions.getRendition(fo)
+                : content.getInputStream())) {
+            final byte[] magic = new byte[MAGIC_LENGTH];
+            inputStream.mark(magic.length);
+            final int length = read(inputStream, magic);
+            inputStream.reset();
+
+            final String prefix = "data:" + detectMimeType(magic, length,
+                fo.getName().getBaseName()) + ";base64,";
+            final long size = renditions != null ? inputStream.available()
+                : content.getSize();
+            final StringBuilder uri = new StringBuilder(
+                prefix.length() + (size > 0 && size < Integer.MAX_VALUE / 2
+                    ? (int) ((size + 2) / 3 * 4) : 0));
+            uri.append(prefix);
+            try (final OutputStream out = Base64.getEncoder()
+                .wrap(new AppendingOutputStream(uri))) {
+                IOUtils.copy(inputStream, out);
+            }
+            return uri.toString();
+        }
+    }
+
+    /**
+     * Determines the MIME type of an image from its first bytes, falling back
+     * to the file suffix for unknown content.
+     */
+    static String detectMimeType(final byte[] magic, final int length,
+        final String location) {
+        final String mimeType = detectImageType(magic, length);
+        return mimeType != null ? mimeType : determineMimeType(location);
+    }
+
+    /**
+     * Determines the MIME type of an image from its first bytes, or returns
+     * null if they are no known image format.
+     */
+    static String detectImageType(final byte[] magic, final int length) {
+        if (startsWith(magic, length, 0x89, 'P', 'N', 'G'))
+            return "image/png";
+        if (startsWith(magic, length, 'G', 'I', 'F', '8'))
+            return "image/gif";
+        if (startsWith(magic, length, 0xff, 0xd8, 0xff))
+            return "image/jpeg";
+        if (startsWith(magic, length, 'R', 'I', 'F', 'F') && length >= 12
+            && magic[8] == 'W' && magic[9] == 'E' && magic[10] == 'B'
+            && magic[11] == 'P')
+            return "image/webp";
+        if (startsWith(magic, length, 'B', 'M'))
+            return "image/bmp";
+        if (startsWith(magic, length, 'I', 'I', '*', 0)
+            || startsWith(magic, length, 'M', 'M', 0, '*'))
+            return "image/tiff";
+        if (startsWith(magic, length, 0, 0, 1, 0))
+            return "image/x-icon";
+        if (new String(magic, 0, length, StandardCharsets.ISO_8859_1)
+            .contains("<svg"))
+            return "image/svg+xml";
+        return null;
+    }
+
     private static String determineMimeType(final String location) {
         String s = location.toLowerCase().trim();
         if (s.endsWith("png"))
@@ -61,6 +296,54 @@ public class XSLTUtils {
             return "image/gif";
         if (s.endsWith("jpg") || s.endsWith("jpeg"))
             return "image/jpeg";
+        if (s.endsWith("svg"))
+            return "image/svg+xml";
         return "image/gif"; // default
     }
+
+    private static boolean startsWith(final byte[] bytes, final int length,
+        final int... prefix) {
+        if (length < prefix.length)
+            return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if ((bytes[i] & 0xff) != prefix[i])
+                return false;
+        }
+        return true;
+    }
+
+    static int read(final InputStream in, final byte[] buffer)
+        throws IOException {
+        int length = 0;
+        int n;
+        while (length < buffer.length
+            && (n = in.read(buffer, length, buffer.length - length)) != -1) {
+            length += n;
+        }
+        return length;
+    }
+
+    /**
+     * Appends the ASCII output of the Base64 encoder to the URI.
+     */
+    private static final class AppendingOutputStream extends OutputStream {
+
+        private final StringBuilder builder;
+
+        private AppendingOutputStream(final StringBuilder builder) {
+            this.builder = builder;
+        }
+
+        @Override
+        public void write(final int b) {
+            builder.append((char) b);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            for (int i = off; i < off + len; i++) {
+                builder.append((char) b[i]);
+            }
+        }
+    }
 }
@@ -17,60 +17,98 @@
 package com.google.code.docbook4j;
 
 import java.io.Closeable;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.xml.transform.Source;
 import javax.xml.transform.URIResolver;
+import javax.xml.transform.stream.StreamSource;
 
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Resolves stylesheet imports, includes and {@code document()} lookups through
+ * VFS. Web addresses of the DocBook stylesheets are mapped to the bundled
+ * copies by the {@link DocbookCatalog}.
+ * <p>
+ * Every resolved file is tracked once, however often it is resolved, with a
+ * reference count of the handles currently in use. A file is closed as soon
+ * as its last handle is released, i.e. when the processor closes the stream
+ * it read the source from, unless it is still being read by someone else.
+ * Files still open when the resolver is closed are closed then and reported
+ * in the log.
+ */
 public class XslURIResolver implements URIResolver, Closeable, AutoCloseable {
 
     private static final Logger log =
         LoggerFactory.getLogger(XslURIResolver.class);
 
-    private final List<FileObject> fileObjects = new ArrayList<>();
+    private final Map<String, TrackedFile> trackedFiles = new LinkedHashMap<>();
+
+    private final Map<String, String> normalizedBases = new HashMap<>();
+
+    private final StylesheetCache stylesheetCache;
 
     private String docbookXslBase;
 
+    private int openHandles;
+
+    private int peakOpenHandles;
+
+    public XslURIResolver() {
+        this(null);
+    }
+
+    /**
+     * @param stylesheetCache cache serving the content of resolved
+     *                        stylesheets, or {@code null} to always read them
+     *                        through VFS
+     */
+    public XslURIResolver(StylesheetCache stylesheetCache) {
+        this.stylesheetCache = stylesheetCache;
+    }
+
     public Source resolve(String href, String base) {
         log.debug("Resolving href={} for base={}", href, base);
         if (href == null || href.trim().length() == 0)
             return null;
+        if (href.startsWith("http:") || href.startsWith("https:")) {
+            final String mapped = DocbookCatalog.getInstance().resolveUri(href);
+            if (mapped != null)
+                href = mapped;
+        }
         if (docbookXslBase == null && href.startsWith("res:") && href
             .endsWith("docbook.xsl")) {
             try {
-                docbookXslBase =
-                    resolveFile(href).getParent().getURL().toExternalForm();
+                final FileObject docbookXsl = resolveFile(href);
+                try {
+                    docbookXslBase =
+                        docbookXsl.getParent().getURL().toExternalForm();
+                } finally {
+                    release(docbookXsl);
+                }
             } catch (FileSystemException e) {
                 docbookXslBase = null;
             }
         }
-        String normalizedBase = null;
-        if (base != null) {
-            try {
-                normalizedBase =
-                    resolveFile(base).getParent().getURL().toExternalForm();
-            } catch (final FileSystemException ignored) {
-            }
-        }
+        final String normalizedBase = normalizeBase(base);
         try {
-            FileObject urlFileObject = resolveFile(href, normalizedBase);
-            if (!urlFileObject.exists())
-                throw new FileSystemException(
-                    "File object not found: " + urlFileObject);
-            return new FileObjectStreamSource(urlFileObject);
+            return createSource(resolveFile(href, normalizedBase));
         } catch (final FileSystemException e) {
             // not exists for given base? try with docbook base...
             try {
                 if (docbookXslBase != null) {
-                    return new FileObjectStreamSource(
-                        resolveFile(href, docbookXslBase));
+                    return createSource(resolveFile(href, docbookXslBase));
                 }
             } catch (final FileSystemException e1) {
                 // do nothing.
@@ -80,6 +118,46 @@ public class XslURIResolver implements URIResolver, Closeable, AutoCloseable {
         return null;
     }
 
+    private String normalizeBase(final String base) {
+        if (base == null)
+            return null;
+        if (normalizedBases.containsKey(base))
+            return normalizedBases.get(base);
+        String normalizedBase = null;
+        try {
+            final FileObject baseFileObject = resolveFile(base);
+            try {
+                normalizedBase =
+                    baseFileObject.getParent().getURL().toExternalForm();
+            } finally {
+                release(baseFileObject);
+            }
+        } catch (final FileSystemException ignored) {
+        }
+        normalizedBases.put(base, normalizedBase);
+        return normalizedBase;
+    }
+
+    /**
+     * Creates the source for the given resolved file and releases the
+     * resolver's handle on it. Stream sources acquire their own handle while
+     * their input stream is open.
+     */
+    private Source createSource(final FileObject fileObject)
+        throws FileSystemException {
+        try {
+            if (!fileObject.exists())
+                throw new FileSystemException(
+                    "File object not found: " + fileObject);
+            if (stylesheetCache != null
+                && StylesheetCache.isCacheable(fileObject))
+                return stylesheetCache.getSource(fileObject);
+            return new TrackedStreamSource(fileObject);
+        } finally {
+            release(fileObject);
+        }
+    }
+
     private FileObject resolveFile(final String href)
         throws FileSystemException {
         return resolveFile(href, null);
@@ -90,18 +168,135 @@ public class XslURIResolver implements URIResolver, Closeable, AutoCloseable {
         final FileObject fileObject = base != null ?
             FileObjectUtils.resolveFile(href, base) :
             FileObjectUtils.resolveFile(href);
-        fileObjects.add(fileObject);
+        acquire(fileObject);
         return fileObject;
     }
 
+    private synchronized void acquire(final FileObject fileObject) {
+        final String uri = fileObject.getName().getURI();
+        TrackedFile trackedFile = trackedFiles.get(uri);
+        if (trackedFile == null) {
+            trackedFile = new TrackedFile(fileObject);
+            trackedFiles.put(uri, trackedFile);
+        }
+        if (trackedFile.references++ == 0) {
+            openHandles++;
+            peakOpenHandles = Math.max(peakOpenHandles, openHandles);
+        }
+    }
+
+    private synchronized void release(final FileObject fileObject) {
+        final TrackedFile trackedFile =
+            trackedFiles.get(fileObject.getName().getURI());
+        if (trackedFile == null || trackedFile.references == 0)
+            return;
+        if (--trackedFile.references == 0) {
+            openHandles--;
+            // file objects are shared by the VFS manager; leave them open
+            // while streams opened outside this resolver are still reading
+            if (!trackedFile.fileObject.isContentOpen())
+                closeQuietly(trackedFile.fileObject);
+        }
+    }
+
+    /**
+     * Returns the distinct file objects resolved so far, in resolution order.
+     * When the resolver is used while compiling a stylesheet, this is the
+     * stylesheet's import/include graph.
+     */
+    public synchronized List<FileObject> getResolvedFiles() {
+        final List<FileObject> resolved = new ArrayList<>();
+        for (final TrackedFile trackedFile : trackedFiles.values())
+            resolved.add(trackedFile.fileObject);
+        return Collections.unmodifiableList(resolved);
+    }
+
+    /**
+     * Number of resolved files whose handles are currently in use.
+     */
+    public synchronized int getOpenHandleCount() {
+        return openHandles;
+    }
+
+    /**
+     * Highest number of files open at the same time since the resolver was
+     * created.
+     */
+    public synchronized int getPeakOpenHandleCount() {
+        return peakOpenHandles;
+    }
+
     @Override
-    public void close() throws IOException {
-        for (final FileObject fileObject : fileObjects) {
+    public synchronized void close() throws IOException {
+        log.debug("Resolved {} files, peak open handles {}, open at close {}",
+            trackedFiles.size(), peakOpenHandles, openHandles);
+        for (final TrackedFile trackedFile : trackedFiles.values()) {
+            if (trackedFile.references > 0) {
+                log.debug("Closing leaked file handle: {}",
+                    trackedFile.fileObject.getName());
+                trackedFile.references = 0;
+                closeQuietly(trackedFile.fileObject);
+            }
+        }
+        openHandles = 0;
+    }
+
+    private static void closeQuietly(final FileObject fileObject) {
+        try {
+            fileObject.close();
+        } catch (final IOException e) {
+            log.error("Failed to close file: {}. {}", e.getMessage(),
+                fileObject.getName());
+        }
+    }
+
+    private static final class TrackedFile {
+
+        private final FileObject fileObject;
+
+        private int references;
+
+        private TrackedFile(final FileObject fileObject) {
+            this.fileObject = fileObject;
+        }
+    }
+
+    /**
+     * Stream source holding a handle on its file while the stream is open.
+     */
+    private final class TrackedStreamSource extends StreamSource {
+
+        private final FileObject fileObject;
+
+        private TrackedStreamSource(final FileObject fileObject)
+            throws FileSystemException {
+            super(fileObject.getURL().toExternalForm());
+            this.fileObject = fileObject;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            acquire(fileObject);
             try {
-                fileObject.close();
-            } catch (final IOException e) {
-                log.error("Failed to close file: {}. {}", e.getMessage(),
-                    fileObject.getURL().toString());
+                return new FilterInputStream(
+                    fileObject.getContent().getInputStream()) {
+                    private boolean closed;
+
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            if (!closed) {
+                                closed = true;
+                                release(fileObject);
+                            }
+                        }
+                    }
+                };
+            } catch (final FileSystemException e) {
+                release(fileObject);
+                throw new RuntimeException(e);
             }
         }
     }
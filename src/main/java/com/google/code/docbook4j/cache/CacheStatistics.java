@@ -0,0 +1,68 @@
+package com.google.code.docbook4j.cache;
+
+/**
+ * Snapshot of the counters of a cache.
+ */
+public final class CacheStatistics {
+
+  private final long hitCount;
+
+  private final long missCount;
+
+  private final long evictionCount;
+
+  private final int size;
+
+  private final long weight;
+
+  public CacheStatistics(final long hitCount, final long missCount,
+      final long evictionCount, final int size, final long weight) {
+    this.hitCount = hitCount;
+    this.missCount = missCount;
+    this.evictionCount = evictionCount;
+    this.size = size;
+    this.weight = weight;
+  }
+
+  public long getHitCount() {
+    return hitCount;
+  }
+
+  public long getMissCount() {
+    return missCount;
+  }
+
+  public long getEvictionCount() {
+    return evictionCount;
+  }
+
+  /**
+   * Number of entries currently cached.
+   */
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * Total weight of the cached entries, e.g. bytes for content caches.
+   */
+  public long getWeight() {
+    return weight;
+  }
+
+  /**
+   * Ratio of hits to lookups, or 0 if there were no lookups yet.
+   */
+  public double getHitRatio() {
+    final long lookups = hitCount + missCount;
+    return lookups == 0 ? 0d : (double) hitCount / lookups;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "hits=%d, misses=%d, evictions=%d, size=%d, weight=%d", hitCount,
+        missCount, evictionCount, size, weight);
+  }
+
+}
@@ -0,0 +1,73 @@
+package com.google.code.docbook4j.cache;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe cache bounded by a number of entries, which unlike
+ * {@link LruCache} takes no lock on lookups.
+ * <p>
+ * When the bound is exceeded, arbitrary entries are evicted rather than the
+ * least recently used ones, so it suits caches whose entries are cheap to
+ * recreate and are looked up far more often than they are added, such as
+ * compiled expressions.
+ */
+public class ConcurrentCache<K, V> {
+
+  private final ConcurrentHashMap<K, V> entries = new ConcurrentHashMap<>();
+
+  private final int maxEntries;
+
+  private final LongAdder hits = new LongAdder();
+
+  private final LongAdder misses = new LongAdder();
+
+  private final LongAdder evictions = new LongAdder();
+
+  public ConcurrentCache(final int maxEntries) {
+    if (maxEntries <= 0) {
+      throw new IllegalArgumentException(
+          "Maximum cache size should be positive!");
+    }
+    this.maxEntries = maxEntries;
+  }
+
+  public V get(final K key) {
+    final V value = entries.get(key);
+    if (value != null) {
+      hits.increment();
+    } else {
+      misses.increment();
+    }
+    return value;
+  }
+
+  public void put(final K key, final V value) {
+    if (entries.put(key, value) != null || entries.size() <= maxEntries) {
+      return;
+    }
+    final Iterator<K> it = entries.keySet().iterator();
+    while (entries.size() > maxEntries && it.hasNext()) {
+      final K evicted = it.next();
+      if (!evicted.equals(key) && entries.remove(evicted) != null) {
+        evictions.increment();
+      }
+    }
+  }
+
+  public V remove(final K key) {
+    return entries.remove(key);
+  }
+
+  public void clear() {
+    entries.clear();
+  }
+
+  public CacheStatistics getStatistics() {
+    final int size = entries.size();
+    return new CacheStatistics(hits.sum(), misses.sum(), evictions.sum(),
+        size, size);
+  }
+
+}
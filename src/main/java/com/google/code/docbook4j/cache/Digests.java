@@ -0,0 +1,49 @@
+package com.google.code.docbook4j.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 helpers used to build content-based cache keys.
+ */
+public final class Digests {
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private Digests() {
+  }
+
+  public static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 not supported!", e);
+    }
+  }
+
+  public static String sha256(final byte[] content) {
+    return toHex(newDigest().digest(content));
+  }
+
+  public static String sha256(final InputStream in) throws IOException {
+    final MessageDigest digest = newDigest();
+    final byte[] buffer = new byte[8192];
+    int n;
+    while ((n = in.read(buffer)) != -1) {
+      digest.update(buffer, 0, n);
+    }
+    return toHex(digest.digest());
+  }
+
+  public static String toHex(final byte[] bytes) {
+    final char[] chars = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+      chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+    }
+    return new String(chars);
+  }
+
+}
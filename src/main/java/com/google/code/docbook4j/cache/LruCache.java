@@ -0,0 +1,166 @@
+package com.google.code.docbook4j.cache;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Thread-safe, size-bounded cache evicting the least recently used entries.
+ * <p>
+ * The bound is either a number of entries or a total weight computed by a
+ * weigher (e.g. the number of bytes of cached content). Values heavier than
+ * the bound are not cached at all. Callers caching content of very different
+ * sizes may skip values bigger than a fraction of the bound, so one large
+ * value does not evict the many small ones that repeat.
+ * <p>
+ * Lookups take no lock: they read a concurrent copy of the entries and queue
+ * the keys they hit, and the queued keys are moved to the recent end of the
+ * eviction order by the next update. Hits beyond the queue's capacity are not
+ * recorded, so under heavy contention the eviction order is approximate.
+ * <p>
+ * The caches of the renderers are built on this class and, like it, may be
+ * shared by any number of renderers and threads.
+ */
+public class LruCache<K, V> {
+
+  private static final int MAX_PENDING_READS = 1024;
+
+  private final LinkedHashMap<K, V> entries =
+      new LinkedHashMap<>(16, 0.75f, true);
+
+  private final ConcurrentHashMap<K, V> values = new ConcurrentHashMap<>();
+
+  private final Queue<K> pendingReads = new ConcurrentLinkedQueue<>();
+
+  private final AtomicInteger pendingReadCount = new AtomicInteger();
+
+  private final long maxWeight;
+
+  private final ToLongFunction<? super V> weigher;
+
+  private long weight;
+
+  private final LongAdder hits = new LongAdder();
+
+  private final LongAdder misses = new LongAdder();
+
+  private long evictions;
+
+  public LruCache(final int maxEntries) {
+    this(maxEntries, value -> 1L);
+  }
+
+  public LruCache(final long maxWeight,
+      final ToLongFunction<? super V> weigher) {
+    if (maxWeight <= 0) {
+      throw new IllegalArgumentException(
+          "Maximum cache weight should be positive!");
+    }
+    this.maxWeight = maxWeight;
+    this.weigher = weigher;
+  }
+
+  public V get(final K key) {
+    final V value = values.get(key);
+    if (value != null) {
+      hits.increment();
+      if (pendingReadCount.incrementAndGet() <= MAX_PENDING_READS) {
+        pendingReads.add(key);
+      } else {
+        pendingReadCount.decrementAndGet();
+      }
+    } else {
+      misses.increment();
+    }
+    return value;
+  }
+
+  public synchronized void put(final K key, final V value) {
+    final long valueWeight = weigher.applyAsLong(value);
+    remove(key);
+    if (valueWeight > maxWeight) {
+      return;
+    }
+    entries.put(key, value);
+    values.put(key, value);
+    weight += valueWeight;
+    final Iterator<Map.Entry<K, V>> eldest = entries.entrySet().iterator();
+    while (weight > maxWeight && eldest.hasNext()) {
+      final Map.Entry<K, V> entry = eldest.next();
+      weight -= weigher.applyAsLong(entry.getValue());
+      eldest.remove();
+      values.remove(entry.getKey());
+      evictions++;
+      evicted(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * Called when the given entry is evicted to make room for new entries,
+   * while the cache is locked. Does nothing by default.
+   */
+  protected void evicted(final K key, final V value) {
+  }
+
+  public synchronized V remove(final K key) {
+    drainReads();
+    final V value = entries.remove(key);
+    values.remove(key);
+    if (value != null) {
+      weight -= weigher.applyAsLong(value);
+    }
+    return value;
+  }
+
+  /**
+   * Removes all entries whose key matches the given predicate and returns
+   * the removed values.
+   */
+  public synchronized List<V> removeIf(final Predicate<? super K> predicate) {
+    final List<V> removed = new ArrayList<>();
+    final Iterator<Map.Entry<K, V>> it = entries.entrySet().iterator();
+    while (it.hasNext()) {
+      final Map.Entry<K, V> entry = it.next();
+      if (predicate.test(entry.getKey())) {
+        weight -= weigher.applyAsLong(entry.getValue());
+        removed.add(entry.getValue());
+        it.remove();
+        values.remove(entry.getKey());
+      }
+    }
+    return removed;
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+    values.clear();
+    weight = 0;
+  }
+
+  public synchronized CacheStatistics getStatistics() {
+    return new CacheStatistics(hits.sum(), misses.sum(), evictions,
+        entries.size(), weight);
+  }
+
+  /**
+   * Moves the keys hit by lookups since the last update to the recent end of
+   * the eviction order.
+   */
+  private void drainReads() {
+    K key;
+    while ((key = pendingReads.poll()) != null) {
+      pendingReadCount.decrementAndGet();
+      entries.get(key);
+    }
+  }
+
+}
@@ -0,0 +1,257 @@
+package com.google.code.docbook4j.cache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Size-bounded cache of rendered documents in a local directory, keyed by a
+ * digest of all inputs of a render.
+ * <p>
+ * Each entry is stored in a file named after its key. When the total size of
+ * the entries exceeds the bound, the files of the least recently used
+ * entries are deleted. Entries found in the directory when the cache is
+ * created are reused, ordered by their last use; only files named like a
+ * SHA-256 hex digest (see {@link Digests}) are taken for entries, so entries
+ * with other keys do not survive a restart. The directory must be dedicated
+ * to one cache: neither other files nor other caches, e.g. the renditions of
+ * an {@code ImageRenditions}, should be kept in it.
+ * <p>
+ * An entry may record the resources read to produce it (see
+ * {@code com.google.code.docbook4j.ResourceTracker}) with their
+ * last-modified times, stored next to it, so a renderer can check that they
+ * did not change before serving the entry.
+ */
+public final class OutputCache {
+
+  private static final Logger log = LoggerFactory.getLogger(OutputCache.class);
+
+  private static final String TEMP_PREFIX = ".tmp-";
+
+  private static final Pattern KEY = Pattern.compile("[0-9a-f]{64}");
+
+  private static final Pattern TEMP_FILE =
+      Pattern.compile(Pattern.quote(TEMP_PREFIX) + "[0-9]+\\.tmp");
+
+  private static final String RESOURCES_SUFFIX = ".resources";
+
+  private final File directory;
+
+  private final long maxBytes;
+
+  private final LruCache<String, Long> entries;
+
+  private OutputCache(final File directory, final long maxBytes) {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    this.entries = new LruCache<String, Long>(maxBytes, Long::longValue) {
+      @Override
+      protected void evicted(final String key, final Long size) {
+        log.debug("Evicting {} ({} bytes)", key, size);
+        delete(key);
+      }
+    };
+  }
+
+  /**
+   * Creates a cache keeping at most the given number of bytes in the given
+   * directory, which is created if it does not exist. The directory must be
+   * dedicated to this cache.
+   */
+  public static OutputCache create(final File directory, final long maxBytes)
+      throws IOException {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException(
+          "Value of the maximum size should be positive!");
+    }
+    Files.createDirectories(directory.toPath());
+    final OutputCache cache = new OutputCache(directory, maxBytes);
+    final File[] files = directory.listFiles();
+    if (files != null) {
+      Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+      for (final File file : files) {
+        final String name = file.getName();
+        if (TEMP_FILE.matcher(name).matches()) {
+          // left over by an interrupted write
+          Files.deleteIfExists(file.toPath());
+        } else if (name.endsWith(RESOURCES_SUFFIX) && KEY.matcher(name
+            .substring(0, name.length() - RESOURCES_SUFFIX.length()))
+            .matches()) {
+          if (!new File(directory, name.substring(0,
+              name.length() - RESOURCES_SUFFIX.length())).isFile()) {
+            Files.deleteIfExists(file.toPath());
+          }
+        } else if (KEY.matcher(name).matches() && file.isFile()) {
+          cache.entries.put(name, file.length());
+        }
+      }
+    }
+    return cache;
+  }
+
+  public File getDirectory() {
+    return directory;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * Returns the content of the entry with the given key, or null if there is
+   * none.
+   */
+  public InputStream get(final String key) {
+    if (entries.get(key) == null) {
+      return null;
+    }
+    final File file = new File(directory, key);
+    try {
+      final InputStream in = new FileInputStream(file);
+      // keeps the order of use across restarts
+      file.setLastModified(System.currentTimeMillis());
+      return in;
+    } catch (final FileNotFoundException e) {
+      entries.remove(key);
+      return null;
+    }
+  }
+
+  /**
+   * Returns the resources recorded for the entry with the given key, mapped
+   * to their last-modified times, without counting a hit or miss. The map is
+   * empty if there is no such entry or it recorded no resources.
+   */
+  public Map<String, Long> getResources(final String key) throws IOException {
+    final File file = new File(directory, key + RESOURCES_SUFFIX);
+    if (!file.isFile()) {
+      return Collections.emptyMap();
+    }
+    final Properties properties = new Properties();
+    try (final InputStream in = new FileInputStream(file)) {
+      properties.load(in);
+    } catch (final FileNotFoundException e) {
+      return Collections.emptyMap();
+    }
+    final Map<String, Long> resources = new LinkedHashMap<>();
+    for (final String uri : properties.stringPropertyNames()) {
+      resources.put(uri, Long.valueOf(properties.getProperty(uri)));
+    }
+    return resources;
+  }
+
+  /**
+   * Stores the given content under the given key, evicting the least
+   * recently used entries if the cache gets too big. Content bigger than the
+   * cache is not stored.
+   */
+  public void put(final String key, final InputStream content)
+      throws IOException {
+    put(key, content, Collections.<String, Long>emptyMap());
+  }
+
+  /**
+   * Stores the given content under the given key with the resources read to
+   * produce it, mapped to their last-modified times.
+   */
+  public void put(final String key, final InputStream content,
+      final Map<String, Long> resources) throws IOException {
+    final File temp = File.createTempFile(TEMP_PREFIX, null, directory);
+    final File resourcesTemp = resources.isEmpty() ? null :
+        File.createTempFile(TEMP_PREFIX, null, directory);
+    try {
+      Files.copy(content, temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      final long size = temp.length();
+      if (size > maxBytes) {
+        return;
+      }
+      if (resourcesTemp != null) {
+        final Properties properties = new Properties();
+        for (final Map.Entry<String, Long> entry : resources.entrySet()) {
+          properties.setProperty(entry.getKey(),
+              String.valueOf(entry.getValue()));
+        }
+        try (final OutputStream out = new FileOutputStream(resourcesTemp)) {
+          properties.store(out, null);
+        }
+      }
+      synchronized (entries) {
+        final File resourcesFile = new File(directory, key + RESOURCES_SUFFIX);
+        if (resourcesTemp != null) {
+          Files.move(resourcesTemp.toPath(), resourcesFile.toPath(),
+              StandardCopyOption.REPLACE_EXISTING,
+              StandardCopyOption.ATOMIC_MOVE);
+        } else {
+          Files.deleteIfExists(resourcesFile.toPath());
+        }
+        Files.move(temp.toPath(), new File(directory, key).toPath(),
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        entries.put(key, size);
+      }
+    } finally {
+      Files.deleteIfExists(temp.toPath());
+      if (resourcesTemp != null) {
+        Files.deleteIfExists(resourcesTemp.toPath());
+      }
+    }
+  }
+
+  /**
+   * Removes the entry with the given key, if any.
+   */
+  public void purge(final String key) {
+    synchronized (entries) {
+      if (entries.remove(key) != null) {
+        delete(key);
+      }
+    }
+  }
+
+  /**
+   * Removes all entries.
+   */
+  public void purge() {
+    synchronized (entries) {
+      entries.removeIf(key -> {
+        delete(key);
+        return true;
+      });
+    }
+  }
+
+  /**
+   * Hits, misses and evictions of this cache, and the number of bytes it
+   * holds.
+   */
+  public CacheStatistics getStatistics() {
+    return entries.getStatistics();
+  }
+
+  private void delete(final String key) {
+    try {
+      Files.deleteIfExists(new File(directory, key).toPath());
+      Files.deleteIfExists(new File(directory, key + RESOURCES_SUFFIX)
+          .toPath());
+    } catch (final IOException e) {
+      log.warn("Error deleting cached output {}", key, e);
+    }
+  }
+
+}
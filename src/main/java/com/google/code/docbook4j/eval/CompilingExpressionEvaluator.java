@@ -0,0 +1,69 @@
+/*
+ * Copyright 2013 Maxim Kalina
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.docbook4j.eval;
+
+import com.google.code.docbook4j.cache.CacheStatistics;
+import com.google.code.docbook4j.cache.ConcurrentCache;
+
+/**
+ * Base of evaluators keeping compiled expressions in a bounded cache keyed by
+ * the expression text, so expressions repeated in a document (or across
+ * documents) are compiled once. Lookups take no lock, so evaluators may be
+ * shared by concurrent renders.
+ */
+abstract class CompilingExpressionEvaluator<C, X extends Exception>
+        implements ExpressionEvaluator {
+
+    private static final int MAX_COMPILED_EXPRESSIONS = 4096;
+
+    private final ConcurrentCache<String, C> compiledExpressions =
+            new ConcurrentCache<String, C>(MAX_COMPILED_EXPRESSIONS);
+
+    protected C getCompiled(String expression) throws X {
+        C compiled = compiledExpressions.get(expression);
+        if (compiled == null) {
+            compiled = compile(expression);
+            compiledExpressions.put(expression, compiled);
+        }
+        return compiled;
+    }
+
+    /**
+     * Replaces the cached compiled form of the given expression.
+     */
+    protected void putCompiled(String expression, C compiled) {
+        compiledExpressions.put(expression, compiled);
+    }
+
+    protected abstract C compile(String expression) throws X;
+
+    public void precompile(String expression) {
+        try {
+            getCompiled(expression);
+        } catch (Exception e) {
+            // reported when the expression is evaluated
+        }
+    }
+
+    public CacheStatistics getStatistics() {
+        return compiledExpressions.getStatistics();
+    }
+
+    public void clear() {
+        compiledExpressions.clear();
+    }
+
+}
@@ -16,10 +16,27 @@
 
 package com.google.code.docbook4j.eval;
 
+import com.google.code.docbook4j.cache.CacheStatistics;
+
 import java.util.Map;
 
 public interface ExpressionEvaluator {
 
     String evaluate(String expression, Map<String, Object> context);
 
+    /**
+     * Compiles the given expression ahead of its first evaluation, if the
+     * evaluator caches compiled expressions.
+     */
+    default void precompile(String expression) {
+    }
+
+    /**
+     * Returns the statistics of the compiled expression cache, or null if the
+     * evaluator does not cache compiled expressions.
+     */
+    default CacheStatistics getStatistics() {
+        return null;
+    }
+
 }
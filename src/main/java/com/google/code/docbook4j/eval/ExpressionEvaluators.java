@@ -22,7 +22,7 @@ public enum ExpressionEvaluators {
 
     private Class<? extends ExpressionEvaluator> evaluatorClass;
 
-    private ExpressionEvaluator evaluator;
+    private volatile ExpressionEvaluator evaluator;
 
     private ExpressionEvaluators(
             Class<? extends ExpressionEvaluator> evaluatorClass) {
@@ -31,16 +31,23 @@ public enum ExpressionEvaluators {
 
     public ExpressionEvaluator getEvaluator() {
 
-        if (evaluator == null) {
-            try {
-                evaluator = evaluatorClass.newInstance();
-            } catch (Exception e) {
-                throw new RuntimeException(
-                        "Error creating expression evaluator!", e);
+        ExpressionEvaluator result = evaluator;
+        if (result == null) {
+            synchronized (this) {
+                result = evaluator;
+                if (result == null) {
+                    try {
+                        result = evaluatorClass.newInstance();
+                    } catch (Exception e) {
+                        throw new RuntimeException(
+                                "Error creating expression evaluator!", e);
+                    }
+                    evaluator = result;
+                }
             }
         }
 
-        return this.evaluator;
+        return result;
     }
 
     public static final ExpressionEvaluators lookup(String type) {
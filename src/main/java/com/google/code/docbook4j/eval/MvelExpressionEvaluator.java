@@ -17,21 +17,32 @@
 package com.google.code.docbook4j.eval;
 
 import org.mvel2.MVEL;
+import org.mvel2.PropertyAccessException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
 import java.util.Map;
 
-class MvelExpressionEvaluator implements ExpressionEvaluator {
+class MvelExpressionEvaluator
+        extends CompilingExpressionEvaluator<Serializable, RuntimeException> {
 
     private static final Logger log = LoggerFactory
             .getLogger(MvelExpressionEvaluator.class);
 
+    /**
+     * Cached in place of the compiled form of expressions which have to be
+     * interpreted.
+     */
+    private static final Serializable INTERPRETED = new Serializable() {
+    };
+
     public String evaluate(String expression, Map<String, Object> context) {
 
         try {
 
-            Object result = MVEL.eval(expression, context);
+            Object result = execute(expression, context);
             if (result != null)
                 return String.valueOf(result);
 
@@ -44,4 +55,40 @@ class MvelExpressionEvaluator implements ExpressionEvaluator {
         }
 
     }
+
+    private Object execute(String expression, Map<String, Object> context) {
+        Serializable compiled = getCompiled(expression);
+        if (compiled == INTERPRETED)
+            return MVEL.eval(expression, context);
+        try {
+            return MVEL.executeExpression(compiled, context);
+        } catch (PropertyAccessException e) {
+            if (!isAccessorFailure(e))
+                throw e;
+            // compiled accessors cannot call getters declared by non-public
+            // classes, which the interpreter can; interpret the expression
+            // from now on
+            log.debug("Interpreting expression: {}", expression, e);
+            putCompiled(expression, INTERPRETED);
+            return MVEL.eval(expression, context);
+        }
+    }
+
+    /**
+     * Tells failures of the compiled accessors apart from exceptions thrown
+     * by the members the expression calls, so the latter are not run twice.
+     */
+    private static boolean isAccessorFailure(PropertyAccessException e) {
+        for (Throwable cause = e.getCause(); cause != null; cause = cause
+                .getCause()) {
+            if (cause instanceof InvocationTargetException)
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    protected Serializable compile(String expression) {
+        return MVEL.compileExpression(expression);
+    }
 }
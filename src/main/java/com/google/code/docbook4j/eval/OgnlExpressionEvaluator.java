@@ -24,7 +24,8 @@ import org.slf4j.LoggerFactory;
 
 import java.util.Map;
 
-class OgnlExpressionEvaluator implements ExpressionEvaluator {
+class OgnlExpressionEvaluator extends
+        CompilingExpressionEvaluator<Object, OgnlException> {
 
     private static final Logger log = LoggerFactory
             .getLogger(OgnlExpressionEvaluator.class);
@@ -33,7 +34,7 @@ class OgnlExpressionEvaluator implements ExpressionEvaluator {
 
         try {
 
-            Object ognlExpression = Ognl.parseExpression(expression);
+            Object ognlExpression = getCompiled(expression);
             OgnlContext ctx = new OgnlContext();
             Object result = Ognl.getValue(ognlExpression, ctx, context);
 
@@ -51,4 +52,9 @@ class OgnlExpressionEvaluator implements ExpressionEvaluator {
 
     }
 
+    @Override
+    protected Object compile(String expression) throws OgnlException {
+        return Ognl.parseExpression(expression);
+    }
+
 }
@@ -16,36 +16,73 @@
 
 package com.google.code.docbook4j.renderer;
 
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
 
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
+import javax.xml.transform.sax.SAXResult;
 import javax.xml.transform.sax.SAXSource;
 import javax.xml.transform.stream.StreamResult;
 
+import com.google.code.docbook4j.DocbookCatalog;
 import com.google.code.docbook4j.Docbook4JException;
 import com.google.code.docbook4j.ExpressionEvaluatingXMLReader;
 import com.google.code.docbook4j.FileObjectInputSource;
 import com.google.code.docbook4j.FileObjectUtils;
+import com.google.code.docbook4j.ImageRenditions;
+import com.google.code.docbook4j.ResourceTracker;
+import com.google.code.docbook4j.StylesheetCache;
+import com.google.code.docbook4j.VfsContext;
+import com.google.code.docbook4j.XSLTUtils;
+import com.google.code.docbook4j.cache.Digests;
+import com.google.code.docbook4j.cache.OutputCache;
+import com.google.code.docbook4j.eval.ExpressionEvaluators;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileSystemOptions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
 import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
 
 abstract class BaseRenderer<T extends BaseRenderer<T>> implements Renderer<T> {
 
     private static final Logger log = LoggerFactory
             .getLogger(BaseRenderer.class);
 
+    private static final String GRAMMAR_POOL_PROPERTY =
+            "http://apache.org/xml/properties/internal/grammar-pool";
+
+    private static final String LEXICAL_HANDLER_PROPERTY =
+            "http://xml.org/sax/properties/lexical-handler";
+
+    private static final ThreadLocal<BooleanSupplier> cancellation =
+            new ThreadLocal<BooleanSupplier>();
+
     protected String xmlResource;
 
     protected String xslResource;
@@ -56,9 +93,36 @@ abstract class BaseRenderer<T extends BaseRenderer<T>> implements Renderer<T> {
 
     protected Map<String, Object> vars = new HashMap<String, Object>();
 
+    protected XsltEngine xsltEngine = XsltEngines.DEFAULT;
+
+    protected StylesheetCache stylesheetCache;
+
+    protected VfsContext vfsContext;
+
+    protected PreparedTemplate template;
+
+    protected OutputCache outputCache;
+
+    protected FragmentCache fragmentCache = FragmentCache.getInstance();
+
+    protected ImageRenditions imageRenditions;
+
     @SuppressWarnings("unchecked")
     public T xml(String xmlResource) {
         this.xmlResource = xmlResource;
+        this.template = null;
+        return (T) this;
+    }
+
+    /**
+     * Renders the given prepared template instead of parsing the xml source.
+     * The template's events are replayed with the variables of this renderer.
+     */
+    @SuppressWarnings("unchecked")
+    public T template(PreparedTemplate template) {
+        assertNotNull(template, "Value of the template should be not null!");
+        this.xmlResource = template.getLocation();
+        this.template = template;
         return (T) this;
     }
 
@@ -74,9 +138,80 @@ abstract class BaseRenderer<T extends BaseRenderer<T>> implements Renderer<T> {
         return (T) this;
     }
 
+    @SuppressWarnings("unchecked")
+    public T xsltEngine(XsltEngine xsltEngine) {
+        assertNotNull(xsltEngine, "Value of the xslt engine should be not null!");
+        this.xsltEngine = xsltEngine;
+        return (T) this;
+    }
+
+    /**
+     * Serves imported stylesheets and {@code document()} lookups from the
+     * given in-memory cache. The cache may be shared between renderers.
+     */
+    @SuppressWarnings("unchecked")
+    public T stylesheetCache(StylesheetCache stylesheetCache) {
+        this.stylesheetCache = stylesheetCache;
+        return (T) this;
+    }
+
+    /**
+     * Serves repeated renders from the given cache. The cache key is a digest
+     * of the parsed document, including its includes and the values of its
+     * expressions, of the stylesheet and the files it imports, of the
+     * parameters and of the user configuration. The style sheets and images
+     * inlined by {@link XSLTUtils} and the fonts and images read by FOP are
+     * recorded with the output, which is rendered again when one of them
+     * changes. The cache may be shared between renderers.
+     */
+    @SuppressWarnings("unchecked")
+    public T outputCache(OutputCache outputCache) {
+        this.outputCache = outputCache;
+        return (T) this;
+    }
+
+    /**
+     * Replays included files from the given cache instead of the
+     * {@linkplain FragmentCache#getInstance() default} one.
+     */
+    @SuppressWarnings("unchecked")
+    public T fragmentCache(FragmentCache fragmentCache) {
+        assertNotNull(fragmentCache,
+            "Value of the fragment cache should be not null!");
+        this.fragmentCache = fragmentCache;
+        return (T) this;
+    }
+
+    /**
+     * Embeds downscaled renditions of big images, at the resolution and size
+     * of the given renditions, e.g. {@link ImageRenditions#PRINT_DPI} for
+     * PDF and {@link ImageRenditions#SCREEN_DPI} for HTML. HTML documents use
+     * them for images inlined by {@link XSLTUtils#toBase64}.
+     */
+    @SuppressWarnings("unchecked")
+    public T imageRenditions(ImageRenditions imageRenditions) {
+        this.imageRenditions = imageRenditions;
+        return (T) this;
+    }
+
+    /**
+     * Resolves the files of this renderer with the given options. Other
+     * renderers, also those rendering concurrently, are not affected.
+     */
     @SuppressWarnings("unchecked")
     public T fileSystemOptions(FileSystemOptions fileSystemOptions) {
-        FileObjectUtils.setFileSystemOptions(fileSystemOptions);
+        this.vfsContext = VfsContext.withOptions(fileSystemOptions);
+        return (T) this;
+    }
+
+    /**
+     * Resolves the files of this renderer with the given context, e.g. one
+     * with its own file system manager and cache strategy. The caller remains
+     * responsible for closing the context.
+     */
+    @SuppressWarnings("unchecked")
+    public T vfsContext(VfsContext vfsContext) {
+        this.vfsContext = vfsContext;
         return (T) this;
     }
 
@@ -107,74 +242,478 @@ abstract class BaseRenderer<T extends BaseRenderer<T>> implements Renderer<T> {
     }
 
     public InputStream render() throws Docbook4JException {
+        return render((BooleanSupplier) null);
+    }
+
+    /**
+     * Renders on a pool of daemon threads, one per available processor.
+     * Cancelling the returned future stops the transformation.
+     */
+    @Override
+    public CompletableFuture<InputStream> renderAsync() {
+        return renderAsync(AsyncExecutorHolder.executor);
+    }
+
+    /**
+     * Renders on the given executor. Cancelling the returned future stops the
+     * transformation at the next element or text of the source, including
+     * the FOP processing of its output. The renderer should not be modified
+     * until the future completes.
+     */
+    @Override
+    public CompletableFuture<InputStream> renderAsync(Executor executor) {
+        final CompletableFuture<InputStream> future =
+            new CompletableFuture<InputStream>();
+        executor.execute(() -> {
+            if (future.isCancelled())
+                return;
+            try {
+                final InputStream in = render(future::isCancelled);
+                if (!future.complete(in))
+                    IOUtils.closeQuietly(in);
+            } catch (Docbook4JException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Renders into the given stream, without buffering the whole document
+     * where the output format allows it. The stream is flushed, not closed.
+     */
+    @Override
+    public void render(OutputStream out) throws Docbook4JException {
+        assertNotNull(out, "Value of the output stream should be not null!");
+        if (outputCache != null) {
+            Renderer.super.render(out);
+            return;
+        }
+        render(null, (xmlSource, xslSource, userConfigXml, transformer,
+                      source) -> {
+            transform(xmlSource, xslSource, userConfigXml, transformer,
+                source, out);
+            out.flush();
+            return null;
+        });
+    }
+
+    /**
+     * Runs the transformation and records its output, e.g. the xsl-fo of a
+     * document to be rendered by several FOP backends.
+     */
+    PreparedTemplate renderEvents() throws Docbook4JException {
+        return render(null, (xmlSource, xslSource, userConfigXml, transformer,
+                             source) -> {
+            final PreparedTemplate.Recorder recorder =
+                PreparedTemplate.recorder();
+            final SAXResult result = new SAXResult(recorder);
+            result.setLexicalHandler(recorder);
+            transformer.transform(source, result);
+            final String systemId = xmlSource.getURL().toExternalForm();
+            return recorder.toTemplate(xmlResource, systemId);
+        });
+    }
+
+    /**
+     * The last step of a render, receiving the prepared transformation.
+     */
+    @FunctionalInterface
+    interface TransformStep<R> {
+
+        R apply(FileObject xmlSource, FileObject xslSource,
+                FileObject userConfigXml, Transformer transformer,
+                Source source)
+            throws TransformerException, IOException, Docbook4JException;
+    }
+
+    private InputStream render(BooleanSupplier cancelled)
+        throws Docbook4JException {
+        if (outputCache == null)
+            return open(render(cancelled, this::transform));
+        return render(cancelled, this::transformCached);
+    }
+
+    /**
+     * Serves the render from the output cache, or runs the transformation
+     * from the once parsed document and caches its result.
+     */
+    private InputStream transformCached(FileObject xmlSource,
+                                        FileObject xslSource,
+                                        FileObject userConfigXml,
+                                        Transformer transformer, Source source)
+        throws TransformerException, IOException, Docbook4JException {
+        final SAXSource saxSource = (SAXSource) source;
+        final DependencyGraph.Recorder dependencies =
+            DependencyGraph.recorder(saxSource.getXMLReader());
+        final PreparedTemplate document;
+        try {
+            document = dependencies.record(saxSource.getInputSource(),
+                xmlResource);
+        } catch (final SAXException e) {
+            throw new TransformerException(e);
+        }
+        final String key = outputKey(xslSource, userConfigXml,
+            dependencies.toGraph());
+        if (!ResourceTracker.isUnchanged(outputCache.getResources(key)))
+            outputCache.purge(key);
+        final InputStream cached = outputCache.get(key);
+        if (cached != null) {
+            log.debug("Serving {} from the output cache", xmlResource);
+            return cached;
+        }
+        final ResourceTracker resources = new ResourceTracker();
+        final ResourceTracker previous = ResourceTracker.bind(resources);
+        final FileObject result;
+        try {
+            result = transform(xmlSource, xslSource, userConfigXml,
+                transformer, new SAXSource(document.newReader(vars),
+                    document.newInputSource()));
+        } finally {
+            ResourceTracker.bind(previous);
+        }
+        try (final InputStream in = result.getContent().getInputStream()) {
+            outputCache.put(key, in, resources.getResources());
+        }
+        return open(result);
+    }
+
+    private String outputKey(FileObject xslSource, FileObject userConfigXml,
+                             DependencyGraph document) throws IOException {
+        final StringBuilder key = new StringBuilder();
+        key.append(getClass().getName()).append('\n')
+            .append(xsltEngine.getName()).append('\n')
+            .append(document.getDigest()).append('\n');
+        final Map<String, Long> imports = TemplatesCache.getInstance()
+            .getImportGraph(xslSource.getURL().toExternalForm(), xsltEngine);
+        if (imports.isEmpty()) {
+            try (final InputStream in = xslSource.getContent().getInputStream()) {
+                key.append(Digests.sha256(in)).append('\n');
+            }
+        }
+        for (final Map.Entry<String, Long> entry : imports.entrySet())
+            key.append(entry.getKey()).append('@').append(entry.getValue())
+                .append('\n');
+        for (final Map.Entry<String, String> entry :
+            new TreeMap<String, String>(params).entrySet())
+            key.append(entry.getKey()).append('=').append(entry.getValue())
+                .append('\n');
+        if (userConfigXml != null) {
+            try (final InputStream in =
+                     userConfigXml.getContent().getInputStream()) {
+                key.append(Digests.sha256(in)).append('\n');
+            }
+        }
+        if (imageRenditions != null)
+            key.append(imageRenditions.getSettingsKey()).append('\n');
+        return Digests.sha256(key.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private InputStream open(FileObject result) throws Docbook4JException {
+        try {
+            return result.getContent().getInputStream();
+        } catch (final FileSystemException e) {
+            throw new Docbook4JException("Error transforming xml!", e);
+        }
+    }
+
+    /**
+     * Runs a render ending with the given step. The source is cancelled when
+     * the given supplier, if any, returns true.
+     */
+    <R> R render(BooleanSupplier cancelled, TransformStep<R> step)
+        throws Docbook4JException {
+        return render(cancelled, null, step);
+    }
+
+    /**
+     * Runs a render ending with the given step, transforming with the given
+     * stylesheet unless an xsl stylesheet is set. Without either, the
+     * renderer's {@linkplain #getDefaultXslStylesheet() default stylesheet}
+     * is used.
+     */
+    <R> R render(BooleanSupplier cancelled, String defaultXslStylesheet,
+                 TransformStep<R> step)
+        throws Docbook4JException {
         assertNotNull(xmlResource,
             "Value of the xml source should be not null!");
-        final FileObject result;
+        final VfsContext previousContext = vfsContext != null ?
+            FileObjectUtils.bind(vfsContext) : null;
+        final ImageRenditions previousRenditions = imageRenditions != null ?
+            XSLTUtils.bindImageRenditions(imageRenditions) : null;
+        if (cancelled != null)
+            cancellation.set(cancelled);
+        try {
+            return doRender(cancelled, defaultXslStylesheet, step);
+        } finally {
+            cancellation.remove();
+            if (imageRenditions != null)
+                XSLTUtils.bindImageRenditions(previousRenditions);
+            if (vfsContext != null)
+                FileObjectUtils.bind(previousContext);
+        }
+    }
+
+    private <R> R doRender(BooleanSupplier cancelled,
+                           String defaultXslStylesheet, TransformStep<R> step)
+        throws Docbook4JException {
+        final SAXParserPool parserPool = getParserPool();
+        SAXParser parser = null;
         try (final FileObject xmlSourceFileObject = FileObjectUtils
             .resolveFile(xmlResource);
             final FileObject xslSourceFileObject = xslResource != null ?
                 FileObjectUtils.resolveFile(xslResource) :
-                getDefaultXslStylesheet();
+                defaultXslStylesheet != null ?
+                    resolveXslStylesheet(defaultXslStylesheet) :
+                    getDefaultXslStylesheet();
             final DocbookTransformer transformer = new DocbookTransformer(
-                xmlSourceFileObject, xslSourceFileObject, params);
-            final FileObject xsltResult = FileObjectUtils
-                .resolveFile("tmp://" + UUID.randomUUID().toString());
+                xmlSourceFileObject, xslSourceFileObject, params, xsltEngine,
+                stylesheetCache);
             final FileObject userConfigXmlSourceFileObject =
                 userConfigXmlResource != null ?
                     FileObjectUtils.resolveFile(userConfigXmlResource) :
                     null) {
-            final SAXParserFactory factory = createParserFactory();
-            final XMLReader reader = factory.newSAXParser().getXMLReader();
-
-            // prepare xml sax source
-            final ExpressionEvaluatingXMLReader piReader =
-                new ExpressionEvaluatingXMLReader(reader, vars);
-            piReader.setEntityResolver((publicId, systemId) -> {
-                log.debug("Resolving file {}", systemId);
-                FileObject inc = FileObjectUtils.resolveFile(systemId);
-                return new InputSource(inc.getContent().getInputStream());
-            });
-
-            final SAXSource source = new SAXSource(piReader,
-                new FileObjectInputSource(xmlSourceFileObject));
-
-            // prepare xslt result
-            xsltResult.createFile();
-
-            // create transformer and do transformation
-            transformer.transform(source,
-                new StreamResult(xsltResult.getContent().getOutputStream()));
-
-            // do post processing
-            result = postProcess(xmlSourceFileObject, xslSourceFileObject,
-                xsltResult, userConfigXmlSourceFileObject);
+            final SAXSource source;
+            if (template != null) {
+                source = new SAXSource(template.newReader(vars),
+                    template.newInputSource());
+            } else {
+                parser = parserPool.borrow();
+                final XMLReader reader = parser.getXMLReader();
+                configureReader(reader);
+
+                // prepare xml sax source
+                final ExpressionEvaluatingXMLReader piReader =
+                    new ExpressionEvaluatingXMLReader(
+                        includeFilter(reader, parserPool), vars);
+                piReader.setEntityResolver(this::resolveEntity);
+
+                source = new SAXSource(piReader,
+                    new FileObjectInputSource(xmlSourceFileObject));
+            }
+            if (cancelled != null)
+                source.setXMLReader(new CancellableXMLFilter(
+                    source.getXMLReader(), cancelled));
+
+            return step.apply(xmlSourceFileObject, xslSourceFileObject,
+                userConfigXmlSourceFileObject, transformer, source);
         } catch (final TransformerException | ParserConfigurationException | SAXException e) {
             throw new Docbook4JException("Error transforming xml!", e);
         } catch (IOException e) {
             throw new Docbook4JException("Error transforming xml !", e);
+        } finally {
+            if (parser != null)
+                parserPool.release(parser);
         }
-        try {
-            return result.getContent().getInputStream();
-        } catch (final FileSystemException e) {
-            throw new Docbook4JException("Error transforming xml!", e);
+    }
+
+    /**
+     * Parses the xml source and compiles the expressions of its processing
+     * instructions, so they are cached before the first render. Useful to
+     * warm up the expression caches for large templates.
+     */
+    public void precompileExpressions() throws Docbook4JException {
+        parse(new DefaultHandler() {
+            @Override
+            public void processingInstruction(String target, String data) {
+                final ExpressionEvaluators e =
+                    ExpressionEvaluators.lookup(target);
+                if (e != null)
+                    e.getEvaluator().precompile(data);
+            }
+        }, null);
+    }
+
+    /**
+     * Parses the xml source, resolving its includes, into a template which
+     * can be rendered many times with different variables, see
+     * {@link #template(PreparedTemplate)}.
+     */
+    public PreparedTemplate prepare() throws Docbook4JException {
+        final PreparedTemplate.Recorder recorder = PreparedTemplate.recorder();
+        final String systemId = parse(recorder, recorder);
+        return recorder.toTemplate(xmlResource, systemId);
+    }
+
+    /**
+     * Parses the xml source into the given handlers and returns its system id.
+     */
+    private String parse(ContentHandler contentHandler,
+                         LexicalHandler lexicalHandler) throws Docbook4JException {
+        assertNotNull(xmlResource,
+            "Value of the xml source should be not null!");
+        final VfsContext previousContext = vfsContext != null ?
+            FileObjectUtils.bind(vfsContext) : null;
+        final SAXParserPool parserPool = getParserPool();
+        SAXParser parser = null;
+        try (final FileObject xmlSourceFileObject = FileObjectUtils
+            .resolveFile(xmlResource)) {
+            parser = parserPool.borrow();
+            final XMLReader reader =
+                includeFilter(parser.getXMLReader(), parserPool);
+            configureReader(parser.getXMLReader());
+            reader.setEntityResolver(this::resolveEntity);
+            reader.setContentHandler(contentHandler);
+            if (lexicalHandler != null)
+                reader.setProperty(LEXICAL_HANDLER_PROPERTY, lexicalHandler);
+            final InputSource input =
+                new FileObjectInputSource(xmlSourceFileObject);
+            reader.parse(input);
+            return input.getSystemId();
+        } catch (final ParserConfigurationException | SAXException | IOException e) {
+            throw new Docbook4JException("Error parsing xml!", e);
+        } finally {
+            if (parser != null)
+                parserPool.release(parser);
+            if (vfsContext != null)
+                FileObjectUtils.bind(previousContext);
         }
     }
 
+    private InputSource resolveEntity(String publicId, String systemId)
+        throws IOException {
+        final InputSource catalogSource = DocbookCatalog.getInstance()
+            .resolveEntity(publicId, systemId);
+        if (catalogSource != null)
+            return catalogSource;
+        log.debug("Resolving file {}", systemId);
+        FileObject inc = FileObjectUtils.resolveFile(systemId);
+        return new InputSource(inc.getContent().getInputStream());
+    }
+
+    /**
+     * Runs the transformation and returns the file holding the rendered
+     * document. By default the xslt result is written to a temporary file,
+     * which is then handed to {@link #postProcess}.
+     */
+    protected FileObject transform(FileObject xmlSource, FileObject xslSource,
+                                   FileObject userConfigXml, Transformer transformer,
+                                   Source source)
+            throws TransformerException, IOException, Docbook4JException {
+        final FileObject xsltResult = createTempFile();
+        try (final OutputStream out =
+                 cancellable(xsltResult.getContent().getOutputStream())) {
+            transformer.transform(source, new StreamResult(out));
+        }
+        return postProcess(xmlSource, xslSource, xsltResult, userConfigXml);
+    }
+
+    /**
+     * Runs the transformation and writes the rendered document to the given
+     * stream. By default the document is rendered with
+     * {@link #transform(FileObject, FileObject, FileObject, Transformer, Source)}
+     * and copied; renderers able to write their output directly override
+     * this.
+     */
+    protected void transform(FileObject xmlSource, FileObject xslSource,
+                             FileObject userConfigXml, Transformer transformer,
+                             Source source, OutputStream out)
+            throws TransformerException, IOException, Docbook4JException {
+        final FileObject result = transform(xmlSource, xslSource,
+            userConfigXml, transformer, source);
+        try (final InputStream in = result.getContent().getInputStream()) {
+            IOUtils.copy(in, out);
+        } finally {
+            result.delete();
+        }
+    }
+
+    /**
+     * Wraps the given handler of the transformation's output, so an
+     * asynchronous render stops the transformation when it is cancelled.
+     */
+    protected ContentHandler cancellable(ContentHandler handler) {
+        final BooleanSupplier cancelled = cancellation.get();
+        if (cancelled == null)
+            return handler;
+        final CancellableXMLFilter filter =
+            new CancellableXMLFilter(null, cancelled);
+        filter.setContentHandler(handler);
+        return filter;
+    }
+
+    /**
+     * Wraps the given stream receiving the transformation's output, so an
+     * asynchronous render stops the transformation when it is cancelled.
+     */
+    protected OutputStream cancellable(OutputStream out) {
+        final BooleanSupplier cancelled = cancellation.get();
+        if (cancelled == null)
+            return out;
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                checkCancelled();
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                checkCancelled();
+                out.write(b, off, len);
+            }
+
+            private void checkCancelled() throws IOException {
+                if (cancelled.getAsBoolean())
+                    throw new IOException("Render cancelled!");
+            }
+        };
+    }
+
     protected FileObject postProcess(FileObject xmlSource,
                                      FileObject xslSource, FileObject xsltResult, FileObject userConfigXml)
             throws Docbook4JException {
         return xsltResult;
     }
 
+    /**
+     * Returns the pool of parsers used by renderers of this class. The pool
+     * is created with the factory returned by {@link #createParserFactory()}.
+     */
+    public SAXParserPool getParserPool() {
+        return SAXParserPool.forRenderer(getClass(), this::createParserFactory);
+    }
+
+    /**
+     * Creates the factory of the parsers reading the xml source. XIncludes
+     * are resolved by the renderer, see {@link #fragmentCache}; parsers
+     * resolving them on their own bypass the fragment cache.
+     */
     protected SAXParserFactory createParserFactory() {
         SAXParserFactory factory = SAXParserFactory.newInstance();
-        factory.setXIncludeAware(true);
         factory.setNamespaceAware(true);
         return factory;
     }
 
+    private XMLReader includeFilter(XMLReader reader, SAXParserPool pool) {
+        return new XIncludeFilter(reader, fragmentCache, pool,
+            this::configureReader);
+    }
+
+    /**
+     * Shares parsed DTD grammars between renders through the
+     * {@link GrammarCache}, so a DTD is read once per JVM rather than once
+     * per document. Cached grammars are never invalidated: clear the cache
+     * when a DTD changes. Parsers not based on Xerces are left as they are.
+     */
+    protected void configureReader(XMLReader reader) {
+        try {
+            reader.setProperty(GRAMMAR_POOL_PROPERTY,
+                GrammarCache.getInstance().getPool());
+        } catch (SAXNotRecognizedException | SAXNotSupportedException e) {
+            log.debug("Grammar pool not supported by {}", reader.getClass());
+        }
+    }
+
     protected abstract FileObject getDefaultXslStylesheet();
 
+    protected FileObject createTempFile() throws FileSystemException {
+        final FileObject file = FileObjectUtils
+            .resolveFile("tmp://" + UUID.randomUUID().toString());
+        file.createFile();
+        return file;
+    }
+
     protected FileObject resolveXslStylesheet(String location) {
         try {
             return FileObjectUtils.resolveFile(location);
@@ -186,7 +725,45 @@ abstract class BaseRenderer<T extends BaseRenderer<T>> implements Renderer<T> {
 
     }
 
-    private void assertNotNull(Object value, String message) {
+    /**
+     * The executor of {@link #renderAsync()}.
+     */
+    static Executor defaultExecutor() {
+        return AsyncExecutorHolder.executor;
+    }
+
+    /**
+     * The executor writing rendered files, separate from the render threads
+     * so renders waiting for their writes do not starve them.
+     */
+    static Executor ioExecutor() {
+        return IoExecutorHolder.executor;
+    }
+
+    private static final class AsyncExecutorHolder {
+
+        private static final ExecutorService executor = Executors
+            .newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                r -> {
+                    final Thread thread = new Thread(r, "docbook4j-render");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    private static final class IoExecutorHolder {
+
+        private static final ExecutorService executor = Executors
+            .newFixedThreadPool(
+                Math.max(4, 2 * Runtime.getRuntime().availableProcessors()),
+                r -> {
+                    final Thread thread = new Thread(r, "docbook4j-io");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    protected void assertNotNull(Object value, String message) {
         if (value == null)
             throw new IllegalArgumentException(message);
     }
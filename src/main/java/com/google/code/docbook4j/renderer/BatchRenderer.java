@@ -0,0 +1,175 @@
+package com.google.code.docbook4j.renderer;
+
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+import com.google.code.docbook4j.Docbook4JException;
+
+/**
+ * Renders many documents in parallel.
+ * <p>
+ * Every job is rendered by a fresh renderer from the given factory, which
+ * configures everything the jobs have in common (stylesheet, user
+ * configuration, xslt engine, ...). The jobs share the process-wide caches:
+ * stylesheets are compiled once by the {@link TemplatesCache}, FOP factories
+ * come from the {@link FopFactoryCache} and parsers from the renderer
+ * class's {@link SAXParserPool}, which is grown to the batch's parallelism.
+ * Results are returned in the order the jobs complete.
+ * <pre>
+ * try (BatchRenderer&lt;PDFRenderer&gt; batch =
+ *     BatchRenderer.create(() -&gt; PDFRenderer.create().xsl(xsl))) {
+ *   Iterator&lt;RenderResult&gt; results = batch.render(jobs);
+ *   ...
+ * }
+ * </pre>
+ */
+public final class BatchRenderer<T extends BaseRenderer<T>>
+    implements AutoCloseable {
+
+  private final Supplier<T> rendererFactory;
+
+  private final Executor executor;
+
+  private final ExecutorService ownedExecutor;
+
+  private final int parallelism;
+
+  private BatchRenderer(final Supplier<T> rendererFactory,
+      final Executor executor, final ExecutorService ownedExecutor,
+      final int parallelism) {
+    this.rendererFactory = rendererFactory;
+    this.executor = executor;
+    this.ownedExecutor = ownedExecutor;
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Creates a batch renderer using one thread per available processor.
+   */
+  public static <T extends BaseRenderer<T>> BatchRenderer<T> create(
+      final Supplier<T> rendererFactory) {
+    return create(rendererFactory,
+        Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Creates a batch renderer with its own pool of the given number of
+   * threads, shut down by {@link #close()}.
+   */
+  public static <T extends BaseRenderer<T>> BatchRenderer<T> create(
+      final Supplier<T> rendererFactory, final int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException(
+          "Value of the parallelism should be positive!");
+    }
+    final ExecutorService executor =
+        Executors.newFixedThreadPool(parallelism, r -> {
+          final Thread thread = new Thread(r, "docbook4j-batch");
+          thread.setDaemon(true);
+          return thread;
+        });
+    return new BatchRenderer<>(rendererFactory, executor, executor,
+        parallelism);
+  }
+
+  /**
+   * Creates a batch renderer running the jobs on the given executor, which
+   * remains owned by the caller.
+   *
+   * @param parallelism the number of jobs the executor runs at the same time
+   */
+  public static <T extends BaseRenderer<T>> BatchRenderer<T> create(
+      final Supplier<T> rendererFactory, final Executor executor,
+      final int parallelism) {
+    if (executor == null) {
+      throw new IllegalArgumentException(
+          "Value of the executor should be not null!");
+    }
+    return new BatchRenderer<>(rendererFactory, executor, null,
+        Math.max(parallelism, 1));
+  }
+
+  /**
+   * Submits the given jobs and returns their results as they complete. The
+   * iterator blocks until the next job completes.
+   */
+  public Iterator<RenderResult> render(final Collection<RenderJob> jobs) {
+    final SAXParserPool parserPool = rendererFactory.get().getParserPool();
+    if (parserPool.getMaxIdle() < parallelism) {
+      parserPool.setMaxIdle(parallelism);
+    }
+    final CompletionService<RenderResult> completionService =
+        new ExecutorCompletionService<>(executor);
+    for (final RenderJob job : jobs) {
+      completionService.submit(() -> render(job));
+    }
+    final int count = jobs.size();
+    return new Iterator<RenderResult>() {
+      private int remaining = count;
+
+      @Override
+      public boolean hasNext() {
+        return remaining > 0;
+      }
+
+      @Override
+      public RenderResult next() {
+        if (remaining == 0) {
+          throw new NoSuchElementException();
+        }
+        try {
+          final RenderResult result = completionService.take().get();
+          remaining--;
+          return result;
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IllegalStateException("Interrupted waiting for results!",
+              e);
+        } catch (final ExecutionException e) {
+          // render(job) reports errors in its result
+          throw new IllegalStateException(e.getCause());
+        }
+      }
+    };
+  }
+
+  private RenderResult render(final RenderJob job) {
+    try {
+      final T renderer = rendererFactory.get();
+      if (job.getTemplate() != null) {
+        renderer.template(job.getTemplate());
+      } else {
+        renderer.xml(job.getXmlResource());
+      }
+      final InputStream content = renderer.parameters(job.getParameters())
+          .variables(job.getVariables()).render();
+      return new RenderResult(job, content, null);
+    } catch (final Docbook4JException e) {
+      return new RenderResult(job, null, e);
+    } catch (final RuntimeException e) {
+      return new RenderResult(job, null,
+          new Docbook4JException("Error rendering " + job.getXmlResource()
+              + "!", e));
+    }
+  }
+
+  /**
+   * Shuts down the thread pool of this batch renderer, if it created one.
+   */
+  @Override
+  public void close() {
+    if (ownedExecutor != null) {
+      ownedExecutor.shutdown();
+    }
+  }
+
+}
@@ -0,0 +1,55 @@
+package com.google.code.docbook4j.renderer;
+
+import java.util.function.BooleanSupplier;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * Aborts the parse, and so the transformation consuming it, as soon as the
+ * render it belongs to is cancelled.
+ */
+final class CancellableXMLFilter extends XMLFilterImpl {
+
+  private final BooleanSupplier cancelled;
+
+  CancellableXMLFilter(final XMLReader parent,
+      final BooleanSupplier cancelled) {
+    super(parent);
+    this.cancelled = cancelled;
+    if (parent != null) {
+      // the filter replaces the parent's resolver during the parse
+      setEntityResolver(parent.getEntityResolver());
+    }
+  }
+
+  private void checkCancelled() throws SAXException {
+    if (cancelled.getAsBoolean()) {
+      throw new SAXException("Render cancelled!");
+    }
+  }
+
+  @Override
+  public void startElement(final String uri, final String localName,
+      final String qName, final Attributes atts) throws SAXException {
+    checkCancelled();
+    super.startElement(uri, localName, qName, atts);
+  }
+
+  @Override
+  public void endElement(final String uri, final String localName,
+      final String qName) throws SAXException {
+    checkCancelled();
+    super.endElement(uri, localName, qName);
+  }
+
+  @Override
+  public void characters(final char[] ch, final int start, final int length)
+      throws SAXException {
+    checkCancelled();
+    super.characters(ch, start, length);
+  }
+
+}
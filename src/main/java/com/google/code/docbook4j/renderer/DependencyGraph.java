@@ -0,0 +1,441 @@
+package com.google.code.docbook4j.renderer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import com.google.code.docbook4j.cache.Digests;
+import org.apache.commons.vfs2.FileObject;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLFilter;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * The inputs of a chunked html build: the files read while parsing the
+ * document (the document itself, its includes and external entities) with
+ * their content hashes, and digests of the parsed content of the document's
+ * top level components (chapters, appendixes, ...).
+ * <p>
+ * A component is identified by its id and can be rendered on its own with
+ * the {@code rootid} parameter of the DocBook stylesheets. The root digest
+ * covers everything that may appear on other pages: content outside the
+ * components, the ids of the components, all titles, and the stylesheet and
+ * parameters of the build. When it changes, the whole document has to be
+ * rendered again. The digest of an index also covers all index terms.
+ */
+public final class DependencyGraph {
+
+  /**
+   * Name of the file the graph is stored in, in the target directory of the
+   * build.
+   */
+  static final String FILE_NAME = ".docbook4j-dependencies";
+
+  private static final String ROOT_KEY = "root";
+
+  private static final String COMPONENT_PREFIX = "component.";
+
+  private static final String FILES_SUFFIX = ".files";
+
+  private static final String FILE_PREFIX = "file.";
+
+  private static final Set<String> components = new HashSet<>(Arrays.asList(
+      "appendix", "article", "bibliography", "chapter", "colophon", "glossary",
+      "index", "part", "preface", "reference", "refentry", "topic"));
+
+  private static final Set<String> titles = new HashSet<>(Arrays.asList(
+      "title", "titleabbrev", "subtitle"));
+
+  private static final String LEXICAL_HANDLER_PROPERTY =
+      "http://xml.org/sax/properties/lexical-handler";
+
+  private static final String XML_NAMESPACE =
+      "http://www.w3.org/XML/1998/namespace";
+
+  private final String rootDigest;
+
+  private final Map<String, String> componentDigests;
+
+  private final Map<String, Set<String>> componentFiles;
+
+  private final Map<String, String> fileHashes;
+
+  private DependencyGraph(final String rootDigest,
+      final Map<String, String> componentDigests,
+      final Map<String, Set<String>> componentFiles,
+      final Map<String, String> fileHashes) {
+    this.rootDigest = rootDigest;
+    this.componentDigests = componentDigests;
+    this.componentFiles = componentFiles;
+    this.fileHashes = fileHashes;
+  }
+
+  /**
+   * The ids of the components, in document order.
+   */
+  public Set<String> getComponents() {
+    return Collections.unmodifiableSet(componentDigests.keySet());
+  }
+
+  /**
+   * The files read by the build.
+   */
+  public Set<String> getFiles() {
+    return Collections.unmodifiableSet(fileHashes.keySet());
+  }
+
+  /**
+   * The files included by the given component, or by one of its includes.
+   */
+  public Set<String> getFiles(final String component) {
+    final Set<String> files = componentFiles.get(component);
+    return files != null ? Collections.unmodifiableSet(files) :
+        Collections.<String>emptySet();
+  }
+
+  /**
+   * The SHA-256 hash of the given file's content, or null if it is not a file
+   * of this build or was resolved from the catalog.
+   */
+  public String getFileHash(final String file) {
+    return fileHashes.get(file);
+  }
+
+  /**
+   * A digest of the whole parsed content of the document.
+   */
+  public String getDigest() {
+    final MessageDigest digest = Digests.newDigest();
+    Recorder.update(digest, rootDigest);
+    for (final Map.Entry<String, String> entry : componentDigests.entrySet()) {
+      Recorder.update(digest, entry.getKey());
+      Recorder.update(digest, entry.getValue());
+    }
+    return Digests.toHex(digest.digest());
+  }
+
+  /**
+   * Returns true if the whole document has to be rendered again, because
+   * there is no previous build or content shared by all pages changed.
+   */
+  public boolean isRootChanged(final DependencyGraph previous) {
+    return previous == null || !rootDigest.equals(previous.rootDigest);
+  }
+
+  /**
+   * Returns the components whose content changed since the given build.
+   */
+  public Set<String> getChangedComponents(final DependencyGraph previous) {
+    final Set<String> changed = new LinkedHashSet<>();
+    for (final Map.Entry<String, String> entry : componentDigests.entrySet()) {
+      if (previous == null || !entry.getValue().equals(
+          previous.componentDigests.get(entry.getKey()))) {
+        changed.add(entry.getKey());
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * Returns the files whose content changed since the given build, or which
+   * were not read by it.
+   */
+  public Set<String> getChangedFiles(final DependencyGraph previous) {
+    final Set<String> changed = new LinkedHashSet<>();
+    for (final Map.Entry<String, String> entry : fileHashes.entrySet()) {
+      if (previous == null || !entry.getValue().equals(
+          previous.fileHashes.get(entry.getKey()))) {
+        changed.add(entry.getKey());
+      }
+    }
+    return changed;
+  }
+
+  public static DependencyGraph load(final FileObject file) throws IOException {
+    final Properties properties = new Properties();
+    try (InputStream in = file.getContent().getInputStream()) {
+      properties.load(in);
+    }
+    final String rootDigest = properties.getProperty(ROOT_KEY);
+    if (rootDigest == null) {
+      throw new IOException("Not a dependency graph: " + file);
+    }
+    final Map<String, String> componentDigests = new LinkedHashMap<>();
+    final Map<String, Set<String>> componentFiles = new LinkedHashMap<>();
+    final Map<String, String> fileHashes = new LinkedHashMap<>();
+    for (final String key : properties.stringPropertyNames()) {
+      final String value = properties.getProperty(key);
+      if (key.startsWith(FILE_PREFIX)) {
+        fileHashes.put(key.substring(FILE_PREFIX.length()), value);
+      } else if (key.startsWith(COMPONENT_PREFIX)
+          && key.endsWith(FILES_SUFFIX)) {
+        final String id = key.substring(COMPONENT_PREFIX.length(),
+            key.length() - FILES_SUFFIX.length());
+        componentFiles.put(id, new LinkedHashSet<>(value.isEmpty() ?
+            Collections.<String>emptyList() : Arrays.asList(value.split(" "))));
+      } else if (key.startsWith(COMPONENT_PREFIX)) {
+        componentDigests.put(key.substring(COMPONENT_PREFIX.length()), value);
+      }
+    }
+    return new DependencyGraph(rootDigest, componentDigests, componentFiles,
+        fileHashes);
+  }
+
+  public void store(final FileObject file) throws IOException {
+    final Properties properties = new Properties();
+    properties.setProperty(ROOT_KEY, rootDigest);
+    for (final Map.Entry<String, String> entry : componentDigests.entrySet()) {
+      properties.setProperty(COMPONENT_PREFIX + entry.getKey(),
+          entry.getValue());
+      properties.setProperty(COMPONENT_PREFIX + entry.getKey() + FILES_SUFFIX,
+          String.join(" ", getFiles(entry.getKey())));
+    }
+    for (final Map.Entry<String, String> entry : fileHashes.entrySet()) {
+      properties.setProperty(FILE_PREFIX + entry.getKey(), entry.getValue());
+    }
+    try (OutputStream out = file.getContent().getOutputStream()) {
+      properties.store(out, "docbook4j dependency graph");
+    }
+  }
+
+  static Recorder recorder(final XMLReader parent) {
+    return new Recorder(parent);
+  }
+
+  /**
+   * Records the dependencies of a parse, passing its events on to the
+   * content handler. The parent's entity resolver is used to resolve the
+   * entities and includes of the document.
+   */
+  static final class Recorder extends XMLFilterImpl
+      implements XIncludeFilter.Listener {
+
+    private final MessageDigest root = Digests.newDigest();
+
+    private final MessageDigest index = Digests.newDigest();
+
+    private final Map<String, MessageDigest> componentDigests =
+        new LinkedHashMap<>();
+
+    private final Map<String, Set<String>> componentFiles =
+        new LinkedHashMap<>();
+
+    private final Set<String> rootFiles = new LinkedHashSet<>();
+
+    private final Map<String, MessageDigest> fileDigests =
+        new LinkedHashMap<>();
+
+    private final Map<String, String> fileHashes = new LinkedHashMap<>();
+
+    private final Set<String> indexComponents = new HashSet<>();
+
+    private MessageDigest component;
+
+    private Set<String> files = rootFiles;
+
+    private String lastResolved;
+
+    private int depth;
+
+    private int titleDepth;
+
+    private int indexTermDepth;
+
+    private Recorder(final XMLReader parent) {
+      super(parent);
+      setEntityResolver(parent.getEntityResolver());
+      for (XMLReader reader = parent; reader instanceof XMLFilter;
+          reader = ((XMLFilter) reader).getParent()) {
+        if (reader instanceof XIncludeFilter) {
+          ((XIncludeFilter) reader).setListener(this);
+        }
+      }
+    }
+
+    /**
+     * Adds a setting of the build, e.g. a parameter, to the root digest.
+     */
+    void setting(final String name, final String value) {
+      update(root, name);
+      update(root, "=");
+      update(root, value);
+    }
+
+    /**
+     * Adds a file read outside of the parse, e.g. the document itself.
+     */
+    void file(final String uri, final String hash) {
+      rootFiles.add(uri);
+      fileHashes.put(uri, hash);
+    }
+
+    /**
+     * Parses the given document into a template, recording its dependencies.
+     */
+    PreparedTemplate record(final InputSource input, final String location)
+        throws SAXException, IOException {
+      final PreparedTemplate.Recorder recorder = PreparedTemplate.recorder();
+      setContentHandler(recorder);
+      setProperty(LEXICAL_HANDLER_PROPERTY, recorder);
+      parse(input);
+      return recorder.toTemplate(location, input.getSystemId());
+    }
+
+    DependencyGraph toGraph() {
+      for (final Map.Entry<String, MessageDigest> entry :
+          fileDigests.entrySet()) {
+        fileHashes.put(entry.getKey(),
+            Digests.toHex(entry.getValue().digest()));
+      }
+      final byte[] indexDigest = index.digest();
+      final Map<String, String> digests = new LinkedHashMap<>();
+      for (final Map.Entry<String, MessageDigest> entry :
+          componentDigests.entrySet()) {
+        final MessageDigest digest = entry.getValue();
+        if (indexComponents.contains(entry.getKey())) {
+          digest.update(indexDigest);
+        }
+        digests.put(entry.getKey(), Digests.toHex(digest.digest()));
+      }
+      return new DependencyGraph(Digests.toHex(root.digest()), digests,
+          componentFiles, fileHashes);
+    }
+
+    @Override
+    public void included(final String uri, final String hash) {
+      files.add(uri);
+      fileHashes.put(uri, hash);
+      lastResolved = uri;
+    }
+
+    @Override
+    public InputSource resolveEntity(final String publicId,
+        final String systemId) throws SAXException, IOException {
+      final InputSource source = super.resolveEntity(publicId, systemId);
+      if (source == null || source.getByteStream() == null) {
+        // catalog entries, e.g. DTDs, are bundled
+        return source;
+      }
+      final MessageDigest digest = Digests.newDigest();
+      source.setByteStream(new DigestInputStream(source.getByteStream(),
+          digest));
+      fileDigests.put(systemId, digest);
+      files.add(systemId);
+      lastResolved = systemId;
+      return source;
+    }
+
+    @Override
+    public void startElement(final String uri, final String localName,
+        final String qName, final Attributes atts) throws SAXException {
+      depth++;
+      if (depth == 2 && components.contains(localName)) {
+        final String id = id(atts);
+        if (id != null) {
+          component = Digests.newDigest();
+          componentDigests.put(id, component);
+          files = new LinkedHashSet<>();
+          componentFiles.put(id, files);
+          if ("index".equals(localName)) {
+            indexComponents.add(id);
+          }
+          update(root, "#" + id);
+          // the component's own file, if it is included
+          if (lastResolved != null && atts.getIndex(XML_NAMESPACE, "base") >= 0
+              && rootFiles.remove(lastResolved)) {
+            files.add(lastResolved);
+          }
+        }
+      }
+      if (titles.contains(localName)) {
+        titleDepth++;
+      }
+      if ("indexterm".equals(localName)) {
+        indexTermDepth++;
+      }
+      lastResolved = null;
+
+      final MessageDigest digest = digest();
+      update(digest, "<");
+      update(digest, qName);
+      for (int i = 0; i < atts.getLength(); i++) {
+        update(digest, " ");
+        update(digest, atts.getQName(i));
+        update(digest, "=");
+        update(digest, atts.getValue(i));
+      }
+      super.startElement(uri, localName, qName, atts);
+    }
+
+    @Override
+    public void endElement(final String uri, final String localName,
+        final String qName) throws SAXException {
+      update(digest(), ">");
+      if (titles.contains(localName)) {
+        titleDepth--;
+      }
+      if ("indexterm".equals(localName)) {
+        indexTermDepth--;
+      }
+      if (depth == 2) {
+        component = null;
+        files = rootFiles;
+      }
+      depth--;
+      super.endElement(uri, localName, qName);
+    }
+
+    @Override
+    public void characters(final char[] ch, final int start, final int length)
+        throws SAXException {
+      final String text = new String(ch, start, length);
+      update(digest(), text);
+      if (component != null && titleDepth > 0) {
+        update(root, text);
+      }
+      if (indexTermDepth > 0) {
+        update(index, text);
+      }
+      super.characters(ch, start, length);
+    }
+
+    @Override
+    public void processingInstruction(final String target, final String data)
+        throws SAXException {
+      final MessageDigest digest = digest();
+      update(digest, "<?");
+      update(digest, target);
+      update(digest, data);
+      super.processingInstruction(target, data);
+    }
+
+    private MessageDigest digest() {
+      return component != null ? component : root;
+    }
+
+    private static String id(final Attributes atts) {
+      final String id = atts.getValue(XML_NAMESPACE, "id");
+      return id != null ? id : atts.getValue("id");
+    }
+
+    private static void update(final MessageDigest digest, final String text) {
+      digest.update(text.getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+    }
+  }
+
+}
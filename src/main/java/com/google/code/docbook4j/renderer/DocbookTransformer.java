@@ -8,13 +8,13 @@ import java.util.Properties;
 import javax.xml.transform.ErrorListener;
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.URIResolver;
 
-import com.google.code.docbook4j.FileObjectStreamSource;
+import com.google.code.docbook4j.StylesheetCache;
 import com.google.code.docbook4j.XslURIResolver;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
@@ -33,17 +33,19 @@ public final class DocbookTransformer extends Transformer
 
   DocbookTransformer(final FileObject xmlSource, final FileObject xslStylesheet,
       final Map<String, String> params) throws FileSystemException {
-    this.xslURIResolver = new XslURIResolver();
+    this(xmlSource, xslStylesheet, params, XsltEngines.DEFAULT, null);
+  }
+
+  DocbookTransformer(final FileObject xmlSource, final FileObject xslStylesheet,
+      final Map<String, String> params, final XsltEngine engine,
+      final StylesheetCache stylesheetCache) throws FileSystemException {
+    this.xslURIResolver = new XslURIResolver(stylesheetCache);
     try {
-      final TransformerFactory transformerFactory =
-          TransformerFactory.newInstance();
-      transformerFactory.setURIResolver(xslURIResolver);
-      final Source source = new FileObjectStreamSource(xslStylesheet);
-      this.transformer = transformerFactory.newTransformer(source);
-      transformer.setParameter("use.extensions", "1");
-      transformer.setParameter("callout.graphics", "0");
-      transformer.setParameter("callout.unicode", "1");
-      transformer.setParameter("callouts.extension", "1");
+      final Templates templates = TemplatesCache.getInstance()
+          .getTemplates(xslStylesheet, engine, stylesheetCache);
+      this.transformer = templates.newTransformer();
+      transformer.setURIResolver(xslURIResolver);
+      engine.setDefaultParameters(transformer);
       transformer.setParameter("base.dir",
           xmlSource.getParent().getURL().toExternalForm());
       for (Map.Entry<String, String> entry : params.entrySet()) {
@@ -16,22 +16,30 @@
 
 package com.google.code.docbook4j.renderer;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.UUID;
+import java.util.Collections;
 
 import javax.xml.transform.Result;
+import javax.xml.transform.Source;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
 
 import com.google.code.docbook4j.Docbook4JException;
 import com.google.code.docbook4j.FileObjectInputSource;
 import com.google.code.docbook4j.FileObjectStreamSource;
 import com.google.code.docbook4j.FileObjectUtils;
 import com.google.code.docbook4j.VfsResourceResolver;
+import com.google.code.docbook4j.cache.Digests;
 import org.apache.avalon.framework.configuration.Configuration;
 import org.apache.avalon.framework.configuration.ConfigurationException;
 import org.apache.avalon.framework.configuration.DefaultConfigurationBuilder;
@@ -39,70 +47,304 @@ import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.fop.apps.FOPException;
 import org.apache.fop.apps.Fop;
+import org.apache.fop.apps.FopFactory;
 import org.apache.fop.apps.FopFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 
 abstract class FORenderer<T extends FORenderer<T>> extends BaseRenderer<T> {
 
-  private static final String defaultXslStylesheet =
+  static final String defaultXslStylesheet =
       "res:xsl/docbook/fo/docbook.xsl";
 
+  private static final Logger log = LoggerFactory.getLogger(FORenderer.class);
+
+  private static final String emptyFoDocument =
+      "<fo:root xmlns:fo=\"http://www.w3.org/1999/XSL/Format\">"
+          + "<fo:layout-master-set><fo:simple-page-master master-name=\"p\">"
+          + "<fo:region-body/></fo:simple-page-master></fo:layout-master-set>"
+          + "<fo:page-sequence master-reference=\"p\">"
+          + "<fo:flow flow-name=\"xsl-region-body\"><fo:block/></fo:flow>"
+          + "</fo:page-sequence></fo:root>";
+
+  protected String foDumpResource;
+
+  protected String fontCache;
+
+  /**
+   * Debug switch: writes the intermediate XSL-FO document to the given
+   * location before handing it to FOP. Without it, the xslt output is
+   * streamed into FOP and never serialized.
+   */
+  @SuppressWarnings("unchecked")
+  public T dumpFo(final String foDumpResource) {
+    this.foDumpResource = foDumpResource;
+    return (T) this;
+  }
+
+  /**
+   * Keeps FOP's font cache (fonts found by {@code <auto-detect/>} and font
+   * metrics) in the given local file instead of the per-user default. The
+   * file may be shared by several JVMs on the same host.
+   *
+   * @see #generateFontCache()
+   */
+  @SuppressWarnings("unchecked")
+  public T fontCache(final String fontCacheFile) {
+    this.fontCache = fontCacheFile;
+    return (T) this;
+  }
+
+  /**
+   * Runs FOP's font setup for the configured user configuration and stores
+   * the result in the {@link #fontCache(String) font cache} file. Meant to
+   * run while building a container image, so renders on fresh hosts do not
+   * scan the system fonts.
+   */
+  public void generateFontCache() throws Docbook4JException {
+    assertNotNull(fontCache, "Value of the font cache should be not null!");
+    assertNotNull(userConfigXmlResource,
+        "Value of the user configuration should be not null!");
+    try (final FileObject userConfigXml =
+        FileObjectUtils.resolveFile(userConfigXmlResource)) {
+      final FopFactoryBuilder builder =
+          new FopFactoryBuilder(getUserConfigBaseUri(userConfigXml));
+      builder.setConfiguration(createFOPConfig(userConfigXml));
+      final FopFactory fopFactory = builder.build();
+      final FontCacheFile fontCacheFile = FontCacheFile.get(fontCache);
+      fontCacheFile.attach(fopFactory.getFontManager());
+      // fonts are set up when a document is rendered
+      final Fop fop =
+          fopFactory.newFop(getMimeType(), new ByteArrayOutputStream());
+      TransformerFactory.newInstance().newTransformer().transform(
+          new StreamSource(new StringReader(emptyFoDocument)),
+          new SAXResult(fop.getDefaultHandler()));
+      fontCacheFile.publish(fopFactory.getFontManager());
+      fontCacheFile.detach(fopFactory.getFontManager());
+    } catch (final URISyntaxException e) {
+      throw new Docbook4JException("Error resolving URI!", e);
+    } catch (final TransformerException | FOPException e) {
+      throw new Docbook4JException("Error generating font cache!", e);
+    } catch (final ConfigurationException | SAXException e) {
+      throw new Docbook4JException("Error loading user configuration!", e);
+    } catch (final IOException e) {
+      throw new Docbook4JException("Error writing font cache!", e);
+    }
+  }
+
   @Override
   protected FileObject getDefaultXslStylesheet() {
     return resolveXslStylesheet(defaultXslStylesheet);
   }
 
+  @Override
+  protected FileObject transform(final FileObject xmlSource,
+      final FileObject xslSource, final FileObject userConfigXml,
+      final Transformer transformer, final Source source)
+      throws TransformerException, IOException, Docbook4JException {
+    if (foDumpResource != null) {
+      try (final FileObject foDump =
+          FileObjectUtils.resolveFile(foDumpResource)) {
+        foDump.createFile();
+        try (final OutputStream out =
+            cancellable(foDump.getContent().getOutputStream())) {
+          transformer.transform(source, new StreamResult(out));
+        }
+        return postProcess(xmlSource, xslSource, foDump, userConfigXml);
+      }
+    }
+    final FileObject target = createTempFile();
+    try (final OutputStream out = target.getContent().getOutputStream()) {
+      transform(xmlSource, xslSource, userConfigXml, transformer, source, out);
+    }
+    return target;
+  }
+
+  /**
+   * Streams the xsl-fo output of the transformation into FOP, which writes
+   * the rendered document to the given stream as pages are laid out.
+   */
+  @Override
+  protected void transform(final FileObject xmlSource,
+      final FileObject xslSource, final FileObject userConfigXml,
+      final Transformer transformer, final Source source,
+      final OutputStream out)
+      throws TransformerException, IOException, Docbook4JException {
+    if (foDumpResource != null) {
+      super.transform(xmlSource, xslSource, userConfigXml, transformer,
+          source, out);
+      return;
+    }
+    final Fop fop = createFop(xmlSource, userConfigXml, out);
+    try {
+      transformer.transform(source,
+          new SAXResult(cancellable(fop.getDefaultHandler())));
+    } catch (final FOPException e) {
+      throw new Docbook4JException("Error transforming fo to pdf!", e);
+    }
+    publishFontCache(fop);
+  }
+
+  /**
+   * Renders the given recorded xsl-fo document, e.g. one shared by several
+   * FOP backends, into the given stream.
+   */
+  void render(final PreparedTemplate fo, final OutputStream out)
+      throws Docbook4JException {
+    try (final FileObject xmlSource = FileObjectUtils.resolveFile(xmlResource);
+        final FileObject userConfigXml = userConfigXmlResource != null ?
+            FileObjectUtils.resolveFile(userConfigXmlResource) : null) {
+      final Fop fop = createFop(xmlSource, userConfigXml, out);
+      final XMLReader reader = fo.newReader(Collections.emptyMap());
+      reader.setContentHandler(cancellable(fop.getDefaultHandler()));
+      reader.parse(fo.newInputSource());
+      publishFontCache(fop);
+      out.flush();
+    } catch (final SAXException e) {
+      throw new Docbook4JException("Error transforming fo to pdf!", e);
+    } catch (final IOException e) {
+      throw new Docbook4JException("Error writing fo output!", e);
+    }
+  }
+
   @Override
   protected FileObject postProcess(final FileObject xmlSource,
       final FileObject xslSource, final FileObject xsltResult,
       final FileObject userConfigXml)
       throws Docbook4JException {
-    final String tmpPdf = "tmp://" + UUID.randomUUID().toString();
-    try (final FileObject target = FileObjectUtils.resolveFile(tmpPdf)) {
+    try {
+      final FileObject target = createTempFile();
+      try (final OutputStream out = target.getContent().getOutputStream()) {
+        final Fop fop = createFop(xmlSource, userConfigXml, out);
+
+        final TransformerFactory factory = TransformerFactory.newInstance();
+        final Transformer transformer = factory.newTransformer(); // identity
+        // transformer
+        transformer.setParameter("use.extensions", "1");
+        transformer.setParameter("fop.extensions", "0");
+        transformer.setParameter("fop1.extensions", "1");
+        final Result res = new SAXResult(cancellable(fop.getDefaultHandler()));
+        transformer.transform(new FileObjectStreamSource(xsltResult), res);
+        publishFontCache(fop);
+      }
+      return target;
+    } catch (final FileSystemException e) {
+      throw new Docbook4JException("Error create filesystem manager!", e);
+    } catch (final TransformerException | FOPException e) {
+      throw new Docbook4JException("Error transforming fo to pdf!", e);
+    } catch (final IOException e) {
+      throw new Docbook4JException("Error writing fo output!", e);
+    }
+  }
+
+  /**
+   * Creates a {@link Fop} writing the rendered document to the given output
+   * stream, with a factory from {@link #getFopFactory}. Every render of this
+   * renderer creates its {@link Fop} through this method.
+   */
+  protected Fop createFop(final FileObject xmlSource,
+      final FileObject userConfigXml, final OutputStream out)
+      throws Docbook4JException {
+    try {
+      return getFopFactory(xmlSource, userConfigXml)
+          .newFop(getMimeType(), out);
+    } catch (final FOPException e) {
+      throw new Docbook4JException("Error transforming fo to pdf!", e);
+    }
+  }
+
+  /**
+   * Returns the {@link FopFactory} for the given document and user
+   * configuration from the {@link FopFactoryCache}, building it on a cache
+   * miss.
+   */
+  protected FopFactory getFopFactory(final FileObject xmlSource,
+      final FileObject userConfigXml) throws Docbook4JException {
+    final String renditions = imageRenditions != null ?
+        imageRenditions.getSettingsKey() : null;
+    try {
+      if (userConfigXml == null) {
+        return FopFactoryCache.getInstance().getFopFactory(
+            xmlSource.getParent().getURL().toURI(), null, null, fontCache,
+            renditions, () -> buildFopFactory(xmlSource, null));
+      }
+      final String configHash;
+      try (final InputStream in = userConfigXml.getContent().getInputStream()) {
+        configHash = Digests.sha256(in);
+      }
+      return FopFactoryCache.getInstance().getFopFactory(
+          getUserConfigBaseUri(userConfigXml),
+          userConfigXml.getURL().toExternalForm(), configHash, fontCache,
+          renditions, () -> buildFopFactory(xmlSource, userConfigXml));
+    } catch (final URISyntaxException e) {
+      throw new Docbook4JException("Error resolving URI!", e);
+    } catch (final IOException e) {
+      throw new Docbook4JException("Error loading user configuration!", e);
+    }
+  }
+
+  protected FopFactory buildFopFactory(final FileObject xmlSource,
+      final FileObject userConfigXml) throws Docbook4JException {
+    try {
       FopFactoryBuilder builder =
           new FopFactoryBuilder(xmlSource.getParent().getURL().toURI(),
-              new VfsResourceResolver());
+              new VfsResourceResolver(xmlSource.getParent().getName().getURI(),
+                  imageRenditions));
       builder.setBaseURI(xmlSource.getParent().getURL().toURI());
 
-      target.createFile();
-
       final Configuration configuration = createFOPConfig(userConfigXml);
       if (configuration != null) {
-        final String configUrl =
-            userConfigXml.getParent().getURL().toExternalForm();
-        final String baseUrl;
-        if (!configUrl.endsWith("/")) {
-          baseUrl = userConfigXml.getParent().getURL().toExternalForm() + "/";
-        } else {
-          baseUrl = configUrl;
-        }
-        builder = new FopFactoryBuilder(new URI(baseUrl))
-            .setConfiguration(configuration);
+        // FOP's own resolver is kept for configurations without renditions
+        builder = imageRenditions != null ?
+            new FopFactoryBuilder(getUserConfigBaseUri(userConfigXml),
+                new VfsResourceResolver(
+                    userConfigXml.getParent().getName().getURI(),
+                    imageRenditions)) :
+            new FopFactoryBuilder(getUserConfigBaseUri(userConfigXml));
+        builder.setConfiguration(configuration);
       }
 
-      final Fop fop = builder.build()
-          .newFop(getMimeType(), target.getContent().getOutputStream());
-
-      final TransformerFactory factory = TransformerFactory.newInstance();
-      final Transformer transformer = factory.newTransformer(); // identity
-      // transformer
-      transformer.setParameter("use.extensions", "1");
-      transformer.setParameter("fop.extensions", "0");
-      transformer.setParameter("fop1.extensions", "1");
-      final Result res = new SAXResult(fop.getDefaultHandler());
-      transformer.transform(new FileObjectStreamSource(xsltResult), res);
-      return target;
+      final FopFactory fopFactory = builder.build();
+      if (fontCache != null) {
+        FontCacheFile.get(fontCache).attach(fopFactory.getFontManager());
+      }
+      return fopFactory;
     } catch (final URISyntaxException e) {
       throw new Docbook4JException("Error resolving URI!", e);
     } catch (final FileSystemException e) {
       throw new Docbook4JException("Error create filesystem manager!", e);
-    } catch (final TransformerException | FOPException e) {
-      throw new Docbook4JException("Error transforming fo to pdf!", e);
     } catch (final ConfigurationException | SAXException | IOException e) {
       throw new Docbook4JException("Error loading user configuration!", e);
     }
   }
 
+  private void publishFontCache(final Fop fop) {
+    if (fontCache == null) {
+      return;
+    }
+    try {
+      FontCacheFile.get(fontCache)
+          .publish(fop.getUserAgent().getFontManager());
+    } catch (final IOException e) {
+      log.warn("Error writing font cache: " + fontCache, e);
+    }
+  }
+
+  private static URI getUserConfigBaseUri(final FileObject userConfigXml)
+      throws FileSystemException, URISyntaxException {
+    final String configUrl =
+        userConfigXml.getParent().getURL().toExternalForm();
+    final String baseUrl;
+    if (!configUrl.endsWith("/")) {
+      baseUrl = configUrl + "/";
+    } else {
+      baseUrl = configUrl;
+    }
+    return new URI(baseUrl);
+  }
+
   protected Configuration createFOPConfig(final FileObject userConfigXml)
       throws IOException, SAXException, ConfigurationException {
     if (userConfigXml == null) {
@@ -0,0 +1,183 @@
+package com.google.code.docbook4j.renderer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.fop.fonts.FontManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent FOP font cache shared by all JVMs on a host.
+ * <p>
+ * FOP writes its font cache in place, which is not safe when several
+ * processes use the same file. Instead, every {@link FontManager} attached to
+ * this cache works on a private copy of the file. When FOP updated that copy
+ * (e.g. after auto-detecting fonts), it is published back by writing a
+ * temporary file next to the cache and atomically renaming it over the
+ * cache, while holding a lock file so concurrent publishers do not
+ * interleave. Readers never see a partially written cache.
+ * <p>
+ * A copy is deleted when its font manager's factory is dropped from the
+ * {@link FopFactoryCache}. Copies of font managers garbage collected in the
+ * meantime are deleted on the next attach, and the remaining ones when the
+ * JVM exits.
+ */
+public final class FontCacheFile {
+
+  private static final Logger log =
+      LoggerFactory.getLogger(FontCacheFile.class);
+
+  private static final ConcurrentMap<File, FontCacheFile> instances =
+      new ConcurrentHashMap<>();
+
+  static {
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      for (final FontCacheFile instance : instances.values()) {
+        instance.deleteCopies(false);
+      }
+    }, "docbook4j-fonts-cleanup"));
+  }
+
+  private final File file;
+
+  private final File lockFile;
+
+  private final Map<FontManager, WorkingCopy> workingCopies =
+      new WeakHashMap<>();
+
+  private final Set<File> copies = new HashSet<>();
+
+  private FontCacheFile(final File file) {
+    this.file = file;
+    this.lockFile = new File(file.getPath() + ".lock");
+  }
+
+  public static FontCacheFile get(final String path) {
+    final File file = new File(path).getAbsoluteFile();
+    return instances.computeIfAbsent(file, FontCacheFile::new);
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Points the given font manager at a private copy of this cache and loads
+   * it, so the font metrics are in memory before the first render.
+   */
+  synchronized void attach(final FontManager fontManager)
+      throws IOException {
+    deleteCopies(true);
+    final File copy = File.createTempFile("docbook4j-fonts", ".cache");
+    copies.add(copy);
+    if (file.exists()) {
+      Files.copy(file.toPath(), copy.toPath(),
+          StandardCopyOption.REPLACE_EXISTING);
+    } else {
+      Files.delete(copy.toPath());
+    }
+    workingCopies.put(fontManager, new WorkingCopy(copy));
+    fontManager.setCacheFile(copy.toURI());
+    fontManager.getFontCache();
+  }
+
+  /**
+   * Deletes the given font manager's copy of the cache, once the font
+   * manager is no longer used.
+   */
+  synchronized void detach(final FontManager fontManager) {
+    final WorkingCopy copy = workingCopies.remove(fontManager);
+    if (copy != null) {
+      copies.remove(copy.file);
+      delete(copy.file);
+    }
+  }
+
+  /**
+   * Publishes the given font manager's copy of the cache, if FOP changed it
+   * since it was attached or last published.
+   */
+  synchronized void publish(final FontManager fontManager)
+      throws IOException {
+    final WorkingCopy copy = workingCopies.get(fontManager);
+    if (copy == null || copy.file.lastModified() == copy.published) {
+      return;
+    }
+    final File dir = file.getParentFile();
+    if (dir != null && !dir.exists() && !dir.mkdirs()) {
+      throw new IOException("Error creating directory: " + dir);
+    }
+    try (final FileChannel channel = FileChannel.open(lockFile.toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        final FileLock ignored = channel.lock()) {
+      final Path tmp = Files.createTempFile(
+          dir != null ? dir.toPath() : new File(".").toPath(),
+          file.getName(), ".tmp");
+      try {
+        Files.copy(copy.file.toPath(), tmp,
+            StandardCopyOption.REPLACE_EXISTING);
+        Files.move(tmp, file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+      } finally {
+        Files.deleteIfExists(tmp);
+      }
+    }
+    copy.published = copy.file.lastModified();
+    log.debug("Published font cache {}", file);
+  }
+
+  /**
+   * Deletes the copies of font managers which were garbage collected, or all
+   * copies.
+   */
+  private synchronized void deleteCopies(final boolean unusedOnly) {
+    final Set<File> used = new HashSet<>();
+    if (unusedOnly) {
+      for (final WorkingCopy copy : workingCopies.values()) {
+        used.add(copy.file);
+      }
+    }
+    for (final Iterator<File> it = copies.iterator(); it.hasNext(); ) {
+      final File copy = it.next();
+      if (!used.contains(copy)) {
+        delete(copy);
+        it.remove();
+      }
+    }
+  }
+
+  private static void delete(final File copy) {
+    try {
+      Files.deleteIfExists(copy.toPath());
+    } catch (final IOException e) {
+      log.debug("Error deleting font cache copy {}", copy, e);
+    }
+  }
+
+  private static final class WorkingCopy {
+
+    private final File file;
+
+    private long published;
+
+    private WorkingCopy(final File file) {
+      this.file = file;
+      this.published = file.lastModified();
+    }
+  }
+
+}
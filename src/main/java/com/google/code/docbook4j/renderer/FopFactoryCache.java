@@ -0,0 +1,161 @@
+package com.google.code.docbook4j.renderer;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+import com.google.code.docbook4j.Docbook4JException;
+import com.google.code.docbook4j.cache.CacheStatistics;
+import com.google.code.docbook4j.cache.LruCache;
+import org.apache.fop.apps.FopFactory;
+
+/**
+ * Process-wide cache of built {@link FopFactory} instances.
+ * <p>
+ * Factories are keyed by their base URI, their persistent font cache, the
+ * settings of their image renditions and,
+ * when a FOP user configuration is used, by the configuration's URL and a
+ * hash of its content, so an edited configuration file is picked up
+ * automatically. Keeping the factories alive
+ * preserves FOP's font metrics, image cache and hyphenation state between
+ * renders. {@link FopFactory} is thread-safe, so cached factories are shared
+ * by concurrent renders. Two renders missing the cache at the same time may
+ * both build a factory; the first one is kept.
+ */
+public final class FopFactoryCache {
+
+  private static final FopFactoryCache instance = new FopFactoryCache(32);
+
+  private final LruCache<Key, FopFactory> factories;
+
+  FopFactoryCache(final int maxEntries) {
+    this.factories = new LruCache<Key, FopFactory>(maxEntries, value -> 1L) {
+      @Override
+      protected void evicted(final Key key, final FopFactory fopFactory) {
+        release(key, fopFactory);
+      }
+    };
+  }
+
+  public static FopFactoryCache getInstance() {
+    return instance;
+  }
+
+  FopFactory getFopFactory(final URI baseUri, final String userConfigUrl,
+      final String userConfigHash, final String fontCache,
+      final String imageRenditions, final FopFactorySupplier supplier)
+      throws Docbook4JException {
+    final Key key = new Key(baseUri, userConfigUrl, userConfigHash, fontCache,
+        imageRenditions);
+    FopFactory fopFactory = factories.get(key);
+    if (fopFactory == null) {
+      fopFactory = supplier.get();
+      final FopFactory built = fopFactory;
+      synchronized (factories) {
+        fopFactory = factories.get(key);
+        if (fopFactory == null) {
+          factories.put(key, built);
+          return built;
+        }
+      }
+      release(key, built);
+    }
+    return fopFactory;
+  }
+
+  /**
+   * Drops all factories built from the user configuration at the given URL.
+   * Call it when files referenced by the configuration (fonts, hyphenation
+   * patterns) changed; changes to the configuration itself are detected
+   * automatically.
+   */
+  public void invalidate(final String userConfigUrl) {
+    removeIf(key -> userConfigUrl.equals(key.userConfigUrl));
+  }
+
+  /**
+   * Drops all cached factories.
+   */
+  public void invalidateAll() {
+    removeIf(key -> true);
+  }
+
+  public CacheStatistics getStatistics() {
+    return factories.getStatistics();
+  }
+
+  private void removeIf(final Predicate<Key> predicate) {
+    final List<Key> removedKeys = new ArrayList<>();
+    final List<FopFactory> removed = factories.removeIf(key -> {
+      if (predicate.test(key)) {
+        removedKeys.add(key);
+        return true;
+      }
+      return false;
+    });
+    for (int i = 0; i < removed.size(); i++) {
+      release(removedKeys.get(i), removed.get(i));
+    }
+  }
+
+  /**
+   * Deletes the working copy of the persistent font cache of a factory
+   * which is no longer cached.
+   */
+  private static void release(final Key key, final FopFactory fopFactory) {
+    if (key.fontCache != null) {
+      FontCacheFile.get(key.fontCache).detach(fopFactory.getFontManager());
+    }
+  }
+
+  interface FopFactorySupplier {
+
+    FopFactory get() throws Docbook4JException;
+
+  }
+
+  private static final class Key {
+
+    private final URI baseUri;
+
+    private final String userConfigUrl;
+
+    private final String userConfigHash;
+
+    private final String fontCache;
+
+    private final String imageRenditions;
+
+    private Key(final URI baseUri, final String userConfigUrl,
+        final String userConfigHash, final String fontCache,
+        final String imageRenditions) {
+      this.baseUri = baseUri;
+      this.userConfigUrl = userConfigUrl;
+      this.userConfigHash = userConfigHash;
+      this.fontCache = fontCache;
+      this.imageRenditions = imageRenditions;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      final Key other = (Key) o;
+      return baseUri.equals(other.baseUri)
+          && Objects.equals(userConfigUrl, other.userConfigUrl)
+          && Objects.equals(userConfigHash, other.userConfigHash)
+          && Objects.equals(fontCache, other.fontCache)
+          && Objects.equals(imageRenditions, other.imageRenditions);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(baseUri, userConfigUrl, userConfigHash, fontCache,
+          imageRenditions);
+    }
+  }
+
+}
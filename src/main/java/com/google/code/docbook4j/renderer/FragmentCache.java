@@ -0,0 +1,105 @@
+package com.google.code.docbook4j.renderer;
+
+import com.google.code.docbook4j.cache.CacheStatistics;
+import com.google.code.docbook4j.cache.LruCache;
+
+/**
+ * Cache of parsed XIncluded files, shared by the documents including them.
+ * <p>
+ * Entries hold the SAX events of an included file, keyed by its URI, and are
+ * only used while the file's last-modified time is unchanged. Includes of the
+ * cached files are kept as they are and resolved when the file is replayed,
+ * so each file is checked on its own. The cache is bounded by the
+ * approximate memory used by the cached events.
+ */
+public final class FragmentCache {
+
+  private static final long DEFAULT_MAX_WEIGHT = 32L * 1024 * 1024;
+
+  private static final FragmentCache instance =
+      new FragmentCache(DEFAULT_MAX_WEIGHT);
+
+  private final LruCache<String, Fragment> fragments;
+
+  /**
+   * Creates a cache holding fragments of at most about the given number of
+   * bytes.
+   */
+  public FragmentCache(final long maxWeight) {
+    this.fragments = new LruCache<>(maxWeight, Fragment::getWeight);
+  }
+
+  /**
+   * The cache used by renderers by default.
+   */
+  public static FragmentCache getInstance() {
+    return instance;
+  }
+
+  /**
+   * Returns the fragment parsed from the file with the given URI, or null if
+   * it is not cached or the file was modified since.
+   */
+  Fragment get(final String uri, final long lastModified) {
+    final Fragment fragment = fragments.get(uri);
+    if (fragment != null && fragment.lastModified != lastModified) {
+      fragments.remove(uri);
+      return null;
+    }
+    return fragment;
+  }
+
+  void put(final String uri, final Fragment fragment) {
+    fragments.put(uri, fragment);
+  }
+
+  /**
+   * Drops the fragment of the file with the given URI.
+   */
+  public void invalidate(final String uri) {
+    fragments.remove(uri);
+  }
+
+  public void clear() {
+    fragments.clear();
+  }
+
+  public CacheStatistics getStatistics() {
+    return fragments.getStatistics();
+  }
+
+  /**
+   * The parsed events of an included file.
+   */
+  static final class Fragment {
+
+    private final PreparedTemplate events;
+
+    private final long lastModified;
+
+    private final String hash;
+
+    Fragment(final PreparedTemplate events, final long lastModified,
+        final String hash) {
+      this.events = events;
+      this.lastModified = lastModified;
+      this.hash = hash;
+    }
+
+    PreparedTemplate getEvents() {
+      return events;
+    }
+
+    /**
+     * The SHA-256 hash of the file's content.
+     */
+    String getHash() {
+      return hash;
+    }
+
+    long getWeight() {
+      return events.getWeight();
+    }
+  }
+
+}
@@ -0,0 +1,114 @@
+package com.google.code.docbook4j.renderer;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.code.docbook4j.cache.CacheStatistics;
+import org.apache.xerces.util.XMLGrammarPoolImpl;
+import org.apache.xerces.xni.grammars.Grammar;
+import org.apache.xerces.xni.grammars.XMLGrammarDescription;
+import org.apache.xerces.xni.grammars.XMLGrammarPool;
+
+/**
+ * Cache of the DTD grammars parsed by the renderers, shared by all renders
+ * and threads, so a DTD is read once per JVM rather than once per document.
+ * <p>
+ * Grammars are never invalidated: a DTD changed while it is cached is only
+ * read again once the cache is {@linkplain #clear() cleared}. The cache holds
+ * a bounded number of grammars and is emptied whenever a new grammar would
+ * exceed the bound.
+ */
+public final class GrammarCache {
+
+  private static final int DEFAULT_MAX_GRAMMARS = 64;
+
+  private static final GrammarCache instance =
+      new GrammarCache(DEFAULT_MAX_GRAMMARS);
+
+  private final BoundedGrammarPool pool;
+
+  private final LongAdder hits = new LongAdder();
+
+  private final LongAdder misses = new LongAdder();
+
+  private final LongAdder evictions = new LongAdder();
+
+  public GrammarCache(final int maxGrammars) {
+    if (maxGrammars <= 0) {
+      throw new IllegalArgumentException(
+          "Maximum cache size should be positive!");
+    }
+    this.pool = new BoundedGrammarPool(maxGrammars);
+  }
+
+  /**
+   * The cache used by the renderers.
+   */
+  public static GrammarCache getInstance() {
+    return instance;
+  }
+
+  /**
+   * Drops all cached grammars, so changed DTDs are read again.
+   */
+  public void clear() {
+    pool.clear();
+  }
+
+  public CacheStatistics getStatistics() {
+    final int size = pool.size();
+    return new CacheStatistics(hits.sum(), misses.sum(), evictions.sum(),
+        size, size);
+  }
+
+  XMLGrammarPool getPool() {
+    return pool;
+  }
+
+  private final class BoundedGrammarPool extends XMLGrammarPoolImpl {
+
+    private final int maxGrammars;
+
+    private BoundedGrammarPool(final int maxGrammars) {
+      this.maxGrammars = maxGrammars;
+    }
+
+    /**
+     * Hands out no grammars up front, so a parser looks up the grammar of
+     * each document rather than loading every cached grammar.
+     */
+    @Override
+    public Grammar[] retrieveInitialGrammarSet(final String grammarType) {
+      return new Grammar[0];
+    }
+
+    @Override
+    public Grammar retrieveGrammar(final XMLGrammarDescription desc) {
+      final Grammar grammar = super.retrieveGrammar(desc);
+      if (grammar != null) {
+        hits.increment();
+      } else {
+        misses.increment();
+      }
+      return grammar;
+    }
+
+    @Override
+    public void putGrammar(final Grammar grammar) {
+      synchronized (fGrammars) {
+        if (!fPoolIsLocked && fGrammarCount >= maxGrammars
+            && !containsGrammar(grammar.getGrammarDescription())) {
+          evictions.add(fGrammarCount);
+          clear();
+        }
+        super.putGrammar(grammar);
+      }
+    }
+
+    private int size() {
+      synchronized (fGrammars) {
+        return fGrammarCount;
+      }
+    }
+  }
+
+}
@@ -16,11 +16,46 @@
 
 package com.google.code.docbook4j.renderer;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamResult;
+
+import com.google.code.docbook4j.Docbook4JException;
+import com.google.code.docbook4j.FileObjectUtils;
+import com.google.code.docbook4j.cache.Digests;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
 import org.apache.commons.vfs2.FileObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
 
 public class HTMLRenderer extends BaseRenderer<HTMLRenderer> {
 
-    private static final String defaultXslStylesheet = "res:xsl/docbook/xhtml/docbook.xsl";
+    private static final Logger log = LoggerFactory
+            .getLogger(HTMLRenderer.class);
+
+    static final String defaultXslStylesheet = "res:xsl/docbook/xhtml/docbook.xsl";
+
+    static final String chunkedXslStylesheet = "res:xsl/docbook/xhtml/chunk.xsl";
 
     private HTMLRenderer() {
     }
@@ -30,6 +65,223 @@ public class HTMLRenderer extends BaseRenderer<HTMLRenderer> {
         return this;
     }
 
+    @Override
+    protected void transform(FileObject xmlSource, FileObject xslSource,
+                             FileObject userConfigXml, Transformer transformer,
+                             Source source, OutputStream out)
+            throws TransformerException {
+        transformer.transform(source, new StreamResult(cancellable(out)));
+    }
+
+    /**
+     * Renders the document as one html file per chunk, e.g. per chapter and
+     * section, into the given directory and returns the written files,
+     * writing them on a pool of daemon threads. See
+     * {@link #renderChunks(String, Executor)}.
+     */
+    public List<FileObject> renderChunks(String targetDir)
+            throws Docbook4JException {
+        return renderChunks(targetDir, BaseRenderer.ioExecutor());
+    }
+
+    /**
+     * Renders the document as one html file per chunk, e.g. per chapter and
+     * section, into the given directory and returns the written files,
+     * sorted by their path.
+     * <p>
+     * Without an xsl stylesheet, the chunking DocBook stylesheet is used; a
+     * custom stylesheet should import {@code xhtml/chunk.xsl}. The chunks are
+     * written by the xslt engine (only Xalan's {@code redirect:write} is
+     * supported by the bundled engines) into a local directory, from where
+     * they are written to the target directory concurrently on the given
+     * executor.
+     */
+    public List<FileObject> renderChunks(String targetDir, Executor executor)
+            throws Docbook4JException {
+        return renderChunks(targetDir, executor, false);
+    }
+
+    /**
+     * Renders the chunks of the components changed since the last build into
+     * the given directory. See {@link #renderChangedChunks(String, Executor)}.
+     */
+    public List<FileObject> renderChangedChunks(String targetDir)
+            throws Docbook4JException {
+        return renderChangedChunks(targetDir, BaseRenderer.ioExecutor());
+    }
+
+    /**
+     * Renders the chunks of the components (chapters, appendixes, ...) changed
+     * since the last build into the given directory and returns the written
+     * files, like {@link #renderChunks(String, Executor)}.
+     * <p>
+     * The {@link DependencyGraph} of each build is stored in the target
+     * directory. The next build compares the parsed content of the document,
+     * including its includes and the values of its expressions, with it and
+     * renders only the components whose content changed, each with the
+     * {@code rootid} parameter. The whole document, including its table of
+     * contents, is rendered when content shared by all pages (e.g. a title)
+     * changed or there is no previous build. Components need an id to be
+     * rendered on their own.
+     */
+    public List<FileObject> renderChangedChunks(String targetDir,
+                                                Executor executor)
+            throws Docbook4JException {
+        return renderChunks(targetDir, executor, true);
+    }
+
+    private List<FileObject> renderChunks(String targetDir, Executor executor,
+                                          boolean incremental)
+            throws Docbook4JException {
+        assertNotNull(targetDir,
+            "Value of the target directory should be not null!");
+        assertNotNull(executor, "Value of the executor should be not null!");
+        final Path chunkDir;
+        try {
+            chunkDir = Files.createTempDirectory("docbook4j-chunks");
+        } catch (IOException e) {
+            throw new Docbook4JException("Error creating chunk directory!", e);
+        }
+        try {
+            final DependencyGraph graph = render(null, chunkedXslStylesheet,
+                (xmlSource, xslSource, userConfigXml, transformer, source) -> {
+                    transformer.setParameter("base.dir",
+                        chunkDir.toAbsolutePath().toString() + File.separator);
+                    if (!params.containsKey("chunk.quietly"))
+                        transformer.setParameter("chunk.quietly", "1");
+                    if (!incremental) {
+                        transformChunks(transformer, source);
+                        return null;
+                    }
+                    return transformChangedChunks(targetDir, xmlSource,
+                        xslSource, transformer, (SAXSource) source);
+                });
+            final List<FileObject> chunks =
+                writeChunks(chunkDir, targetDir, executor);
+            if (graph != null)
+                storeDependencies(targetDir, graph);
+            return chunks;
+        } finally {
+            try {
+                FileUtils.deleteDirectory(chunkDir.toFile());
+            } catch (IOException e) {
+                log.warn("Error deleting chunk directory {}", chunkDir, e);
+            }
+        }
+    }
+
+    private void transformChunks(Transformer transformer, Source source)
+            throws TransformerException {
+        transformer.transform(source,
+            new StreamResult(cancellable(new NullOutputStream())));
+    }
+
+    private DependencyGraph transformChangedChunks(String targetDir,
+            FileObject xmlSource, FileObject xslSource,
+            Transformer transformer, SAXSource source)
+            throws TransformerException, IOException {
+        final FileObject graphFile = FileObjectUtils.resolveFile(targetDir)
+            .resolveFile(DependencyGraph.FILE_NAME);
+        DependencyGraph previous = null;
+        if (graphFile.exists()) {
+            try {
+                previous = DependencyGraph.load(graphFile);
+            } catch (IOException e) {
+                log.warn("Error loading dependencies, rendering all chunks", e);
+            }
+        }
+
+        // the document is parsed once, recording its content and dependencies
+        final DependencyGraph.Recorder dependencies =
+            DependencyGraph.recorder(source.getXMLReader());
+        try (InputStream in = xmlSource.getContent().getInputStream()) {
+            dependencies.file(xmlSource.getURL().toExternalForm(),
+                Digests.sha256(in));
+        }
+        try (InputStream in = xslSource.getContent().getInputStream()) {
+            dependencies.setting(xslSource.getURL().toExternalForm(),
+                Digests.sha256(in));
+        }
+        for (Map.Entry<String, String> param :
+                new TreeMap<String, String>(params).entrySet())
+            dependencies.setting(param.getKey(), param.getValue());
+        final PreparedTemplate document;
+        try {
+            document = dependencies.record(source.getInputSource(),
+                xmlResource);
+        } catch (SAXException e) {
+            throw new TransformerException(e);
+        }
+        final DependencyGraph graph = dependencies.toGraph();
+
+        if (graph.isRootChanged(previous)) {
+            log.debug("Rendering all chunks");
+            transformChunks(transformer, new SAXSource(
+                document.newReader(vars), document.newInputSource()));
+        } else {
+            log.debug("Changed files: {}", graph.getChangedFiles(previous));
+            for (String component : graph.getChangedComponents(previous)) {
+                log.debug("Rendering chunks of {}", component);
+                transformer.setParameter("rootid", component);
+                transformChunks(transformer, new SAXSource(
+                    document.newReader(vars), document.newInputSource()));
+            }
+        }
+        return graph;
+    }
+
+    private void storeDependencies(String targetDir, DependencyGraph graph)
+            throws Docbook4JException {
+        try {
+            graph.store(FileObjectUtils.resolveFile(targetDir)
+                .resolveFile(DependencyGraph.FILE_NAME));
+        } catch (IOException e) {
+            throw new Docbook4JException("Error storing dependencies!", e);
+        }
+    }
+
+    private List<FileObject> writeChunks(Path chunkDir, String targetDir,
+                                         Executor executor)
+            throws Docbook4JException {
+        final List<Path> chunks;
+        try (Stream<Path> files = Files.walk(chunkDir)) {
+            chunks = files.filter(Files::isRegularFile).sorted()
+                .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new Docbook4JException("Error listing chunks!", e);
+        }
+
+        // files are resolved on this thread, which has the vfs context bound
+        final List<FileObject> targets = new ArrayList<FileObject>();
+        final List<CompletableFuture<Void>> writes =
+            new ArrayList<CompletableFuture<Void>>();
+        try {
+            final FileObject target = FileObjectUtils.resolveFile(targetDir);
+            for (final Path chunk : chunks) {
+                final FileObject file = target.resolveFile(
+                    chunkDir.relativize(chunk).toString()
+                        .replace(File.separatorChar, '/'));
+                file.getParent().createFolder();
+                targets.add(file);
+                writes.add(CompletableFuture.runAsync(() -> {
+                    try (OutputStream out =
+                             file.getContent().getOutputStream()) {
+                        Files.copy(chunk, out);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor));
+            }
+            CompletableFuture.allOf(
+                writes.toArray(new CompletableFuture<?>[0])).join();
+        } catch (IOException | CompletionException e) {
+            throw new Docbook4JException("Error writing chunks!",
+                e instanceof CompletionException ? e.getCause() : e);
+        }
+        log.debug("Wrote {} chunks to {}", targets.size(), targetDir);
+        return targets;
+    }
+
     @Override
     protected FileObject getDefaultXslStylesheet() {
         return resolveXslStylesheet(defaultXslStylesheet);
@@ -0,0 +1,280 @@
+package com.google.code.docbook4j.renderer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import com.google.code.docbook4j.Docbook4JException;
+import com.google.code.docbook4j.ImageRenditions;
+import com.google.code.docbook4j.StylesheetCache;
+import org.apache.commons.vfs2.FileObject;
+import org.xml.sax.SAXException;
+
+/**
+ * Renders a document into several formats in one call.
+ * <p>
+ * The source is parsed, its includes resolved and its expressions evaluated
+ * once. The html and xsl-fo transformations then run in parallel on the
+ * same parsed source, and the xsl-fo result is shared by the PDF and RTF
+ * backends, which also run in parallel.
+ * <pre>
+ * Map&lt;Format, InputStream&gt; documents = MultiFormatRenderer.create(xml)
+ *     .formats(Format.HTML, Format.PDF).variable("project", project).render();
+ * </pre>
+ */
+public final class MultiFormatRenderer {
+
+  public enum Format {
+    HTML, PDF, RTF
+  }
+
+  private final String xmlResource;
+
+  private final Set<Format> formats = EnumSet.allOf(Format.class);
+
+  private final Map<String, String> params = new HashMap<>();
+
+  private final Map<String, Object> vars = new HashMap<>();
+
+  private String htmlXslResource;
+
+  private String foXslResource;
+
+  private String cssResource;
+
+  private String userConfigXmlResource;
+
+  private XsltEngine xsltEngine = XsltEngines.DEFAULT;
+
+  private StylesheetCache stylesheetCache;
+
+  private final Map<Format, ImageRenditions> imageRenditions =
+      new EnumMap<>(Format.class);
+
+  private Executor executor = BaseRenderer.defaultExecutor();
+
+  private MultiFormatRenderer(final String xmlResource) {
+    this.xmlResource = xmlResource;
+  }
+
+  public static MultiFormatRenderer create(final String xmlResource) {
+    if (xmlResource == null) {
+      throw new IllegalArgumentException(
+          "Value of the xml source should be not null!");
+    }
+    return new MultiFormatRenderer(xmlResource);
+  }
+
+  /**
+   * Selects the formats to render; all formats by default.
+   */
+  public MultiFormatRenderer formats(final Format first,
+      final Format... rest) {
+    formats.clear();
+    formats.addAll(EnumSet.of(first, rest));
+    return this;
+  }
+
+  public MultiFormatRenderer htmlXsl(final String htmlXslResource) {
+    this.htmlXslResource = htmlXslResource;
+    return this;
+  }
+
+  public MultiFormatRenderer foXsl(final String foXslResource) {
+    this.foXslResource = foXslResource;
+    return this;
+  }
+
+  public MultiFormatRenderer css(final String cssResource) {
+    this.cssResource = cssResource;
+    return this;
+  }
+
+  public MultiFormatRenderer userConfig(final String userConfigXmlResource) {
+    this.userConfigXmlResource = userConfigXmlResource;
+    return this;
+  }
+
+  public MultiFormatRenderer xsltEngine(final XsltEngine xsltEngine) {
+    if (xsltEngine == null) {
+      throw new IllegalArgumentException(
+          "Value of the xslt engine should be not null!");
+    }
+    this.xsltEngine = xsltEngine;
+    return this;
+  }
+
+  public MultiFormatRenderer stylesheetCache(
+      final StylesheetCache stylesheetCache) {
+    this.stylesheetCache = stylesheetCache;
+    return this;
+  }
+
+  /**
+   * Embeds renditions of big images with the given settings into documents
+   * of the given format.
+   *
+   * @see BaseRenderer#imageRenditions(ImageRenditions)
+   */
+  public MultiFormatRenderer imageRenditions(final Format format,
+      final ImageRenditions renditions) {
+    imageRenditions.put(format, renditions);
+    return this;
+  }
+
+  /**
+   * Runs the transformations on the given executor instead of the built-in
+   * render pool.
+   */
+  public MultiFormatRenderer executor(final Executor executor) {
+    if (executor == null) {
+      throw new IllegalArgumentException(
+          "Value of the executor should be not null!");
+    }
+    this.executor = executor;
+    return this;
+  }
+
+  public MultiFormatRenderer parameter(final String name, final String value) {
+    params.put(name, value);
+    return this;
+  }
+
+  public MultiFormatRenderer parameters(final Map<String, String> parameters) {
+    if (parameters != null) {
+      params.putAll(parameters);
+    }
+    return this;
+  }
+
+  public MultiFormatRenderer variable(final String name, final Object value) {
+    vars.put(name, value);
+    return this;
+  }
+
+  public MultiFormatRenderer variables(final Map<String, Object> values) {
+    if (values != null) {
+      vars.putAll(values);
+    }
+    return this;
+  }
+
+  /**
+   * Renders the selected formats and returns the rendered documents.
+   */
+  public Map<Format, InputStream> render() throws Docbook4JException {
+    final PreparedTemplate source;
+    try {
+      source = HTMLRenderer.create(xmlResource).prepare().evaluate(vars);
+    } catch (final SAXException e) {
+      throw new Docbook4JException("Error evaluating expressions!", e);
+    }
+
+    final Map<Format, CompletableFuture<InputStream>> results =
+        new EnumMap<>(Format.class);
+    if (formats.contains(Format.HTML)) {
+      results.put(Format.HTML, supply(() -> {
+        final HTMLRenderer renderer = configure(HTMLRenderer.create(), source,
+            htmlXslResource).imageRenditions(imageRenditions.get(Format.HTML));
+        if (cssResource != null) {
+          renderer.css(cssResource);
+        }
+        return renderer.render();
+      }));
+    }
+    if (formats.contains(Format.PDF) || formats.contains(Format.RTF)) {
+      final CompletableFuture<PreparedTemplate> fo = supply(() ->
+          configure(PDFRenderer.create(), source, foXslResource)
+              .renderEvents());
+      if (formats.contains(Format.PDF)) {
+        results.put(Format.PDF,
+            fo.thenCompose(f -> supply(() -> render(PDFRenderer.create()
+                .imageRenditions(imageRenditions.get(Format.PDF)), f))));
+      }
+      if (formats.contains(Format.RTF)) {
+        results.put(Format.RTF,
+            fo.thenCompose(f -> supply(() -> render(RTFRenderer.create()
+                .imageRenditions(imageRenditions.get(Format.RTF)), f))));
+      }
+    }
+
+    final Map<Format, InputStream> documents = new EnumMap<>(Format.class);
+    Docbook4JException error = null;
+    for (final Map.Entry<Format, CompletableFuture<InputStream>> result :
+        results.entrySet()) {
+      try {
+        documents.put(result.getKey(), result.getValue().join());
+      } catch (final CompletionException e) {
+        if (error == null) {
+          error = e.getCause() instanceof Docbook4JException ?
+              (Docbook4JException) e.getCause() :
+              new Docbook4JException("Error rendering " + result.getKey()
+                  + "!", e.getCause());
+        }
+      }
+    }
+    if (error != null) {
+      for (final InputStream in : documents.values()) {
+        closeQuietly(in);
+      }
+      throw error;
+    }
+    return documents;
+  }
+
+  private <T extends BaseRenderer<T>> T configure(final T renderer,
+      final PreparedTemplate source, final String xslResource) {
+    renderer.template(source).parameters(params).xsltEngine(xsltEngine)
+        .stylesheetCache(stylesheetCache).userConfig(userConfigXmlResource);
+    if (xslResource != null) {
+      renderer.xsl(xslResource);
+    }
+    return renderer;
+  }
+
+  private InputStream render(final FORenderer<?> renderer,
+      final PreparedTemplate fo) throws Docbook4JException {
+    renderer.xml(xmlResource).userConfig(userConfigXmlResource);
+    try {
+      final FileObject target = renderer.createTempFile();
+      try (final OutputStream out = target.getContent().getOutputStream()) {
+        renderer.render(fo, out);
+      }
+      return target.getContent().getInputStream();
+    } catch (final IOException e) {
+      throw new Docbook4JException("Error writing output!", e);
+    }
+  }
+
+  private <R> CompletableFuture<R> supply(final RenderTask<R> task) {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return task.run();
+      } catch (final Docbook4JException e) {
+        throw new CompletionException(e);
+      }
+    }, executor);
+  }
+
+  private static void closeQuietly(final InputStream in) {
+    try {
+      in.close();
+    } catch (final IOException ignored) {
+    }
+  }
+
+  @FunctionalInterface
+  private interface RenderTask<R> {
+
+    R run() throws Docbook4JException;
+  }
+
+}
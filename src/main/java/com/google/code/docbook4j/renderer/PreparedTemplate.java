@@ -0,0 +1,497 @@
+package com.google.code.docbook4j.renderer;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import com.google.code.docbook4j.eval.ExpressionEvaluators;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * A DocBook source parsed once into an in-memory buffer of SAX events, to be
+ * rendered many times with different variables.
+ * <p>
+ * Includes are resolved while the template is prepared. Processing
+ * instructions of the expression languages (e.g. {@code <?mvel ...?>}) are
+ * kept as placeholders and evaluated against the renderer's variables each
+ * time the buffer is replayed. A prepared template is immutable and may be
+ * used by any number of renderers and threads, see
+ * {@link BaseRenderer#prepare()} and {@link BaseRenderer#template}.
+ */
+public final class PreparedTemplate {
+
+  private static final byte START_DOCUMENT = 0;
+  private static final byte END_DOCUMENT = 1;
+  private static final byte START_PREFIX_MAPPING = 2;
+  private static final byte END_PREFIX_MAPPING = 3;
+  private static final byte START_ELEMENT = 4;
+  private static final byte END_ELEMENT = 5;
+  private static final byte CHARACTERS = 6;
+  private static final byte IGNORABLE_WHITESPACE = 7;
+  private static final byte PROCESSING_INSTRUCTION = 8;
+  private static final byte EXPRESSION = 9;
+  private static final byte COMMENT = 10;
+  private static final byte SKIPPED_ENTITY = 11;
+
+  private static final String LEXICAL_HANDLER_PROPERTY =
+      "http://xml.org/sax/properties/lexical-handler";
+
+  private static final String NAMESPACES_FEATURE =
+      "http://xml.org/sax/features/namespaces";
+
+  private static final String NAMESPACE_PREFIXES_FEATURE =
+      "http://xml.org/sax/features/namespace-prefixes";
+
+  private final String location;
+
+  private final String systemId;
+
+  private final byte[] events;
+
+  private final int[] ranges;
+
+  private final Object[] values;
+
+  private final char[] text;
+
+  private PreparedTemplate(final String location, final String systemId,
+      final Recorder recorder) {
+    this.location = location;
+    this.systemId = systemId;
+    this.events = Arrays.copyOf(recorder.events, recorder.eventCount);
+    this.ranges = Arrays.copyOf(recorder.ranges, recorder.rangeCount);
+    this.values = Arrays.copyOf(recorder.values, recorder.valueCount);
+    this.text = recorder.text.toString().toCharArray();
+  }
+
+  /**
+   * The location the template was prepared from, as passed to the renderer.
+   */
+  public String getLocation() {
+    return location;
+  }
+
+  public String getSystemId() {
+    return systemId;
+  }
+
+  /**
+   * Number of recorded SAX events.
+   */
+  public int getEventCount() {
+    return events.length;
+  }
+
+  /**
+   * Approximate number of bytes held by this template.
+   */
+  long getWeight() {
+    return events.length + ranges.length * 4L + values.length * 16L
+        + text.length * 2L;
+  }
+
+  static Recorder recorder() {
+    return new Recorder(true);
+  }
+
+  /**
+   * Returns a recorder keeping the processing instructions of the expression
+   * languages as they are, e.g. for fragments evaluated by the reader they
+   * are replayed into.
+   */
+  static Recorder rawRecorder() {
+    return new Recorder(false);
+  }
+
+  /**
+   * Returns a reader replaying this template, with expressions evaluated
+   * against the given variables. The variables of templates recorded by a
+   * {@linkplain #rawRecorder() raw recorder} may be null.
+   */
+  XMLReader newReader(final Map<String, Object> vars) {
+    return new Replayer(vars);
+  }
+
+  /**
+   * Returns a copy of this template with its expressions evaluated against
+   * the given variables, e.g. to transform the same content several times.
+   */
+  PreparedTemplate evaluate(final Map<String, Object> vars)
+      throws SAXException {
+    final Recorder recorder = new Recorder(true);
+    final Replayer reader = new Replayer(vars);
+    reader.setContentHandler(recorder);
+    reader.setProperty(LEXICAL_HANDLER_PROPERTY, recorder);
+    reader.parse(systemId);
+    return recorder.toTemplate(location, systemId);
+  }
+
+  InputSource newInputSource() {
+    return new InputSource(systemId);
+  }
+
+  /**
+   * Records the SAX events of a parse.
+   */
+  static final class Recorder extends DefaultHandler implements LexicalHandler {
+
+    private byte[] events = new byte[1024];
+
+    private int eventCount;
+
+    private int[] ranges = new int[256];
+
+    private int rangeCount;
+
+    private Object[] values = new Object[1024];
+
+    private int valueCount;
+
+    private final StringBuilder text = new StringBuilder();
+
+    private int lastTextEvent = -1;
+
+    private final boolean expressions;
+
+    private Recorder(final boolean expressions) {
+      this.expressions = expressions;
+    }
+
+    PreparedTemplate toTemplate(final String location, final String systemId) {
+      return new PreparedTemplate(location, systemId, this);
+    }
+
+    private void event(final byte event) {
+      if (eventCount == events.length) {
+        events = Arrays.copyOf(events, eventCount * 2);
+      }
+      events[eventCount++] = event;
+      lastTextEvent = -1;
+    }
+
+    private void value(final Object value) {
+      if (valueCount == values.length) {
+        values = Arrays.copyOf(values, valueCount * 2);
+      }
+      values[valueCount++] = value;
+    }
+
+    private void text(final byte event, final char[] ch, final int start,
+        final int length) {
+      if (lastTextEvent == event) {
+        // adjacent text of the same kind is merged into one event
+        ranges[rangeCount - 1] += length;
+      } else {
+        event(event);
+        if (rangeCount + 2 > ranges.length) {
+          ranges = Arrays.copyOf(ranges, ranges.length * 2);
+        }
+        ranges[rangeCount++] = text.length();
+        ranges[rangeCount++] = length;
+        lastTextEvent = event;
+      }
+      text.append(ch, start, length);
+    }
+
+    @Override
+    public void startDocument() {
+      event(START_DOCUMENT);
+    }
+
+    @Override
+    public void endDocument() {
+      event(END_DOCUMENT);
+    }
+
+    @Override
+    public void startPrefixMapping(final String prefix, final String uri) {
+      event(START_PREFIX_MAPPING);
+      value(prefix);
+      value(uri);
+    }
+
+    @Override
+    public void endPrefixMapping(final String prefix) {
+      event(END_PREFIX_MAPPING);
+      value(prefix);
+    }
+
+    @Override
+    public void startElement(final String uri, final String localName,
+        final String qName, final Attributes attributes) {
+      event(START_ELEMENT);
+      value(uri);
+      value(localName);
+      value(qName);
+      value(attributes.getLength() == 0 ? null :
+          new AttributesImpl(attributes));
+    }
+
+    @Override
+    public void endElement(final String uri, final String localName,
+        final String qName) {
+      event(END_ELEMENT);
+      value(uri);
+      value(localName);
+      value(qName);
+    }
+
+    @Override
+    public void characters(final char[] ch, final int start,
+        final int length) {
+      text(CHARACTERS, ch, start, length);
+    }
+
+    @Override
+    public void ignorableWhitespace(final char[] ch, final int start,
+        final int length) {
+      text(IGNORABLE_WHITESPACE, ch, start, length);
+    }
+
+    @Override
+    public void processingInstruction(final String target,
+        final String data) {
+      final ExpressionEvaluators evaluator = expressions ?
+          ExpressionEvaluators.lookup(target) : null;
+      if (evaluator != null) {
+        evaluator.getEvaluator().precompile(data);
+        event(EXPRESSION);
+        value(evaluator);
+      } else {
+        event(PROCESSING_INSTRUCTION);
+        value(target);
+      }
+      value(data);
+    }
+
+    @Override
+    public void skippedEntity(final String name) {
+      event(SKIPPED_ENTITY);
+      value(name);
+    }
+
+    @Override
+    public void comment(final char[] ch, final int start, final int length) {
+      text(COMMENT, ch, start, length);
+      // comments are never merged
+      lastTextEvent = -1;
+    }
+
+    @Override
+    public void startDTD(final String name, final String publicId,
+        final String systemId) {
+    }
+
+    @Override
+    public void endDTD() {
+    }
+
+    @Override
+    public void startEntity(final String name) {
+    }
+
+    @Override
+    public void endEntity(final String name) {
+    }
+
+    @Override
+    public void startCDATA() {
+    }
+
+    @Override
+    public void endCDATA() {
+    }
+  }
+
+  /**
+   * Replays the recorded events to the registered handlers.
+   */
+  private final class Replayer implements XMLReader {
+
+    private final Map<String, Object> vars;
+
+    private ContentHandler contentHandler;
+
+    private LexicalHandler lexicalHandler;
+
+    private ErrorHandler errorHandler;
+
+    private DTDHandler dtdHandler;
+
+    private EntityResolver entityResolver;
+
+    private Replayer(final Map<String, Object> vars) {
+      this.vars = vars;
+    }
+
+    @Override
+    public void parse(final InputSource input) throws SAXException {
+      parse(input.getSystemId());
+    }
+
+    @Override
+    public void parse(final String systemId) throws SAXException {
+      final ContentHandler handler = contentHandler != null ? contentHandler :
+          new DefaultHandler();
+      int range = 0;
+      int value = 0;
+      for (final byte event : events) {
+        switch (event) {
+          case START_DOCUMENT:
+            handler.startDocument();
+            break;
+          case END_DOCUMENT:
+            handler.endDocument();
+            break;
+          case START_PREFIX_MAPPING:
+            handler.startPrefixMapping((String) values[value],
+                (String) values[value + 1]);
+            value += 2;
+            break;
+          case END_PREFIX_MAPPING:
+            handler.endPrefixMapping((String) values[value++]);
+            break;
+          case START_ELEMENT:
+            final Attributes attributes = (Attributes) values[value + 3];
+            handler.startElement((String) values[value],
+                (String) values[value + 1], (String) values[value + 2],
+                attributes != null ? attributes : new AttributesImpl());
+            value += 4;
+            break;
+          case END_ELEMENT:
+            handler.endElement((String) values[value],
+                (String) values[value + 1], (String) values[value + 2]);
+            value += 3;
+            break;
+          case CHARACTERS:
+            handler.characters(text, ranges[range], ranges[range + 1]);
+            range += 2;
+            break;
+          case IGNORABLE_WHITESPACE:
+            handler.ignorableWhitespace(text, ranges[range],
+                ranges[range + 1]);
+            range += 2;
+            break;
+          case PROCESSING_INSTRUCTION:
+            handler.processingInstruction((String) values[value],
+                (String) values[value + 1]);
+            value += 2;
+            break;
+          case EXPRESSION:
+            final String result = ((ExpressionEvaluators) values[value])
+                .getEvaluator().evaluate((String) values[value + 1], vars);
+            if (result != null) {
+              final char[] resultArray = result.toCharArray();
+              handler.characters(resultArray, 0, resultArray.length);
+            }
+            value += 2;
+            break;
+          case COMMENT:
+            if (lexicalHandler != null) {
+              lexicalHandler.comment(text, ranges[range], ranges[range + 1]);
+            }
+            range += 2;
+            break;
+          case SKIPPED_ENTITY:
+            handler.skippedEntity((String) values[value++]);
+            break;
+          default:
+            throw new IllegalStateException("Unknown event: " + event);
+        }
+      }
+    }
+
+    @Override
+    public boolean getFeature(final String name)
+        throws SAXNotRecognizedException {
+      if (NAMESPACES_FEATURE.equals(name)) {
+        return true;
+      }
+      if (NAMESPACE_PREFIXES_FEATURE.equals(name)) {
+        return false;
+      }
+      throw new SAXNotRecognizedException(name);
+    }
+
+    @Override
+    public void setFeature(final String name, final boolean value)
+        throws SAXNotRecognizedException, SAXNotSupportedException {
+      if (getFeature(name) != value) {
+        throw new SAXNotSupportedException(name);
+      }
+    }
+
+    @Override
+    public Object getProperty(final String name)
+        throws SAXNotRecognizedException {
+      if (LEXICAL_HANDLER_PROPERTY.equals(name)) {
+        return lexicalHandler;
+      }
+      throw new SAXNotRecognizedException(name);
+    }
+
+    @Override
+    public void setProperty(final String name, final Object value)
+        throws SAXNotRecognizedException, SAXNotSupportedException {
+      if (!LEXICAL_HANDLER_PROPERTY.equals(name)) {
+        throw new SAXNotRecognizedException(name);
+      }
+      if (value != null && !(value instanceof LexicalHandler)) {
+        throw new SAXNotSupportedException(name);
+      }
+      lexicalHandler = (LexicalHandler) value;
+    }
+
+    @Override
+    public void setEntityResolver(final EntityResolver resolver) {
+      this.entityResolver = resolver;
+    }
+
+    @Override
+    public EntityResolver getEntityResolver() {
+      return entityResolver;
+    }
+
+    @Override
+    public void setDTDHandler(final DTDHandler handler) {
+      this.dtdHandler = handler;
+    }
+
+    @Override
+    public DTDHandler getDTDHandler() {
+      return dtdHandler;
+    }
+
+    @Override
+    public void setContentHandler(final ContentHandler handler) {
+      this.contentHandler = handler;
+    }
+
+    @Override
+    public ContentHandler getContentHandler() {
+      return contentHandler;
+    }
+
+    @Override
+    public void setErrorHandler(final ErrorHandler handler) {
+      this.errorHandler = handler;
+    }
+
+    @Override
+    public ErrorHandler getErrorHandler() {
+      return errorHandler;
+    }
+  }
+
+}
@@ -0,0 +1,82 @@
+package com.google.code.docbook4j.renderer;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A document to render in a batch, see {@link BatchRenderer}. Parameters and
+ * variables are added to those of the batch's renderer.
+ */
+public final class RenderJob {
+
+  private final String xmlResource;
+
+  private final PreparedTemplate template;
+
+  private final Map<String, String> params = new HashMap<>();
+
+  private final Map<String, Object> vars = new HashMap<>();
+
+  private RenderJob(final String xmlResource, final PreparedTemplate template) {
+    this.xmlResource = xmlResource;
+    this.template = template;
+  }
+
+  public static RenderJob create(final String xmlResource) {
+    if (xmlResource == null) {
+      throw new IllegalArgumentException(
+          "Value of the xml source should be not null!");
+    }
+    return new RenderJob(xmlResource, null);
+  }
+
+  public static RenderJob create(final PreparedTemplate template) {
+    if (template == null) {
+      throw new IllegalArgumentException(
+          "Value of the template should be not null!");
+    }
+    return new RenderJob(template.getLocation(), template);
+  }
+
+  public RenderJob parameter(final String name, final String value) {
+    params.put(name, value);
+    return this;
+  }
+
+  public RenderJob parameters(final Map<String, String> parameters) {
+    if (parameters != null) {
+      params.putAll(parameters);
+    }
+    return this;
+  }
+
+  public RenderJob variable(final String name, final Object value) {
+    vars.put(name, value);
+    return this;
+  }
+
+  public RenderJob variables(final Map<String, Object> values) {
+    if (values != null) {
+      vars.putAll(values);
+    }
+    return this;
+  }
+
+  public String getXmlResource() {
+    return xmlResource;
+  }
+
+  public PreparedTemplate getTemplate() {
+    return template;
+  }
+
+  public Map<String, String> getParameters() {
+    return Collections.unmodifiableMap(params);
+  }
+
+  public Map<String, Object> getVariables() {
+    return Collections.unmodifiableMap(vars);
+  }
+
+}
@@ -0,0 +1,48 @@
+package com.google.code.docbook4j.renderer;
+
+import java.io.InputStream;
+
+import com.google.code.docbook4j.Docbook4JException;
+
+/**
+ * The outcome of a {@link RenderJob}: the rendered document, or the error
+ * which made the job fail.
+ */
+public final class RenderResult {
+
+  private final RenderJob job;
+
+  private final InputStream content;
+
+  private final Docbook4JException error;
+
+  RenderResult(final RenderJob job, final InputStream content,
+      final Docbook4JException error) {
+    this.job = job;
+    this.content = content;
+    this.error = error;
+  }
+
+  public RenderJob getJob() {
+    return job;
+  }
+
+  public boolean isSuccess() {
+    return error == null;
+  }
+
+  /**
+   * Returns the rendered document, or throws the error of a failed job.
+   */
+  public InputStream getContent() throws Docbook4JException {
+    if (error != null) {
+      throw error;
+    }
+    return content;
+  }
+
+  public Docbook4JException getError() {
+    return error;
+  }
+
+}
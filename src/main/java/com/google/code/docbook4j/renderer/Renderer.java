@@ -18,7 +18,13 @@ package com.google.code.docbook4j.renderer;
 
 import com.google.code.docbook4j.Docbook4JException;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 public interface Renderer<T extends Renderer<T>> {
 
@@ -30,4 +36,52 @@ public interface Renderer<T extends Renderer<T>> {
 
     InputStream render() throws Docbook4JException;
 
+    /**
+     * Renders into the given stream, which is flushed but not closed.
+     */
+    default void render(OutputStream out) throws Docbook4JException {
+        try (InputStream in = render()) {
+            final byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1)
+                out.write(buffer, 0, n);
+            out.flush();
+        } catch (IOException e) {
+            throw new Docbook4JException("Error writing output!", e);
+        }
+    }
+
+    /**
+     * Renders into the given channel, which is not closed.
+     */
+    default void render(WritableByteChannel channel)
+            throws Docbook4JException {
+        render(Channels.newOutputStream(channel));
+    }
+
+    /**
+     * Renders on a pool of daemon threads, one per available processor. The
+     * renderer should not be modified until the returned future completes.
+     */
+    default CompletableFuture<InputStream> renderAsync() {
+        return renderAsync(BaseRenderer.defaultExecutor());
+    }
+
+    /**
+     * Renders on the given executor. The renderer should not be modified
+     * until the returned future completes.
+     */
+    default CompletableFuture<InputStream> renderAsync(Executor executor) {
+        final CompletableFuture<InputStream> future =
+                new CompletableFuture<InputStream>();
+        executor.execute(() -> {
+            try {
+                future.complete(render());
+            } catch (Docbook4JException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
 }
@@ -0,0 +1,122 @@
+package com.google.code.docbook4j.renderer;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import com.google.code.docbook4j.cache.CacheStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Pool of idle {@link SAXParser}s, so renders do not look up and configure a
+ * parser factory and a parser each time.
+ * <p>
+ * There is one pool per renderer class, created with the parser factory
+ * returned by the renderer's {@code createParserFactory()}. Parsers are reset
+ * to the factory's configuration when they are returned. At most
+ * {@link #getMaxIdle()} parsers are kept; parsers returned to a full pool
+ * are discarded. In the {@linkplain #getStatistics() statistics}, hits are
+ * borrowed parsers that were reused, misses are newly created parsers and
+ * evictions are discarded parsers.
+ */
+public final class SAXParserPool {
+
+  private static final Logger log = LoggerFactory.getLogger(SAXParserPool.class);
+
+  private static final int DEFAULT_MAX_IDLE = 8;
+
+  private static final ConcurrentMap<Class<?>, SAXParserPool> pools =
+      new ConcurrentHashMap<>();
+
+  private final SAXParserFactory factory;
+
+  private final BlockingQueue<SAXParser> idle = new LinkedBlockingQueue<>();
+
+  private volatile int maxIdle = DEFAULT_MAX_IDLE;
+
+  private final AtomicLong reused = new AtomicLong();
+
+  private final AtomicLong created = new AtomicLong();
+
+  private final AtomicLong discarded = new AtomicLong();
+
+  SAXParserPool(final SAXParserFactory factory) {
+    this.factory = factory;
+  }
+
+  /**
+   * Returns the pool of the given renderer class, creating it with a factory
+   * from the given supplier on first use.
+   */
+  static SAXParserPool forRenderer(final Class<?> rendererClass,
+      final Supplier<SAXParserFactory> factory) {
+    return pools.computeIfAbsent(rendererClass,
+        ignored -> new SAXParserPool(factory.get()));
+  }
+
+  SAXParser borrow() throws ParserConfigurationException, SAXException {
+    final SAXParser parser = idle.poll();
+    if (parser != null) {
+      reused.incrementAndGet();
+      return parser;
+    }
+    created.incrementAndGet();
+    synchronized (factory) {
+      return factory.newSAXParser();
+    }
+  }
+
+  void release(final SAXParser parser) {
+    try {
+      final XMLReader reader = parser.getXMLReader();
+      reader.setContentHandler(null);
+      reader.setDTDHandler(null);
+      reader.setEntityResolver(null);
+      reader.setErrorHandler(null);
+      parser.reset();
+    } catch (final SAXException | RuntimeException e) {
+      log.debug("Discarding parser which failed to reset", e);
+      discarded.incrementAndGet();
+      return;
+    }
+    if (idle.size() >= maxIdle || !idle.offer(parser)) {
+      discarded.incrementAndGet();
+    }
+  }
+
+  public int getMaxIdle() {
+    return maxIdle;
+  }
+
+  /**
+   * Sets the number of idle parsers kept by this pool. Idle parsers above the
+   * new limit are dropped.
+   */
+  public void setMaxIdle(final int maxIdle) {
+    if (maxIdle < 0) {
+      throw new IllegalArgumentException(
+          "Value of max idle parsers should be not negative!");
+    }
+    this.maxIdle = maxIdle;
+    while (idle.size() > maxIdle && idle.poll() != null) {
+      discarded.incrementAndGet();
+    }
+  }
+
+  public CacheStatistics getStatistics() {
+    final int size = idle.size();
+    return new CacheStatistics(reused.get(), created.get(), discarded.get(),
+        size, size);
+  }
+
+}
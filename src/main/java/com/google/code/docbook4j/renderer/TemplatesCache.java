@@ -0,0 +1,369 @@
+package com.google.code.docbook4j.renderer;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+
+import com.google.code.docbook4j.FileObjectStreamSource;
+import com.google.code.docbook4j.FileObjectUtils;
+import com.google.code.docbook4j.StylesheetCache;
+import com.google.code.docbook4j.XslURIResolver;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process-wide cache of compiled stylesheets.
+ * <p>
+ * Entries are keyed by the stylesheet URL and remember the last-modified time
+ * of every file in the stylesheet's import/include graph. An entry is
+ * recompiled as soon as any of those files changes; the bundled DocBook
+ * stylesheets are not checked, as they only change with the library, and
+ * the others can be checked at most once per
+ * {@linkplain #setRecheckInterval(long, TimeUnit) interval}. Each stylesheet
+ * is compiled at most once at a time; concurrent callers asking for the same
+ * stylesheet wait for the running compilation.
+ */
+public final class TemplatesCache {
+
+  private static final Logger log =
+      LoggerFactory.getLogger(TemplatesCache.class);
+
+  private static final TemplatesCache instance = new TemplatesCache();
+
+  private final ConcurrentMap<Key, FutureTask<CachedTemplates>> entries =
+      new ConcurrentHashMap<>();
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  private volatile long recheckNanos;
+
+  TemplatesCache() {
+  }
+
+  public static TemplatesCache getInstance() {
+    return instance;
+  }
+
+  /**
+   * Returns the compiled form of the given stylesheet for the default
+   * {@link XsltEngine}.
+   */
+  public Templates getTemplates(final FileObject stylesheet)
+      throws FileSystemException, TransformerConfigurationException {
+    return getTemplates(stylesheet, XsltEngines.DEFAULT);
+  }
+
+  /**
+   * Returns the compiled form of the given stylesheet for the given engine.
+   */
+  public Templates getTemplates(final FileObject stylesheet,
+      final XsltEngine engine)
+      throws FileSystemException, TransformerConfigurationException {
+    return getTemplates(stylesheet, engine, null);
+  }
+
+  /**
+   * Returns the compiled form of the given stylesheet, compiling it if it is
+   * not cached yet or if its import graph changed since it was compiled.
+   * Imported stylesheets are read through the given stylesheet cache, if
+   * any.
+   */
+  public Templates getTemplates(final FileObject stylesheet,
+      final XsltEngine engine, final StylesheetCache stylesheetCache)
+      throws FileSystemException, TransformerConfigurationException {
+    final Key key =
+        new Key(engine.getName(), stylesheet.getURL().toExternalForm());
+    while (true) {
+      boolean compiled = false;
+      FutureTask<CachedTemplates> task = entries.get(key);
+      if (task == null) {
+        final FutureTask<CachedTemplates> newTask =
+            new FutureTask<>(
+                () -> compile(stylesheet, engine, stylesheetCache));
+        task = entries.putIfAbsent(key, newTask);
+        if (task == null) {
+          task = newTask;
+          compiled = true;
+          newTask.run();
+        }
+      }
+      final CachedTemplates cached = await(key, task);
+      if (compiled) {
+        misses.incrementAndGet();
+        return cached.templates;
+      }
+      if (cached.isUpToDate(recheckNanos)) {
+        hits.incrementAndGet();
+        return cached.templates;
+      }
+      log.debug("Stylesheet {} changed, recompiling", key);
+      entries.remove(key, task);
+    }
+  }
+
+  /**
+   * Returns the files of the import graph of the given stylesheet with their
+   * last-modified times as of its compilation, or an empty map if the
+   * stylesheet is not compiled for the given engine.
+   */
+  Map<String, Long> getImportGraph(final String stylesheetUrl,
+      final XsltEngine engine) {
+    final FutureTask<CachedTemplates> task =
+        entries.get(new Key(engine.getName(), stylesheetUrl));
+    if (task == null || !task.isDone()) {
+      return Collections.emptyMap();
+    }
+    try {
+      return task.get().importGraph;
+    } catch (final InterruptedException | ExecutionException e) {
+      return Collections.emptyMap();
+    }
+  }
+
+  /**
+   * Compiles the stylesheets at the given locations on the given executor, so
+   * the first render using them does not pay the compilation cost. Renders
+   * started while a compilation is running wait for it instead of compiling
+   * the stylesheet again.
+   */
+  public CompletableFuture<Void> precompile(final Executor executor,
+      final String... locations) {
+    final CompletableFuture<?>[] futures =
+        new CompletableFuture<?>[locations.length];
+    for (int i = 0; i < locations.length; i++) {
+      final String location = locations[i];
+      futures[i] = CompletableFuture.runAsync(() -> {
+        try (final FileObject stylesheet =
+            FileObjectUtils.resolveFile(location)) {
+          getTemplates(stylesheet);
+        } catch (final IOException | TransformerConfigurationException e) {
+          throw new CompletionException(e);
+        }
+      }, executor);
+    }
+    return CompletableFuture.allOf(futures);
+  }
+
+  /**
+   * Compiles the bundled html and fo stylesheets in the background. Meant to
+   * be called once at application startup.
+   */
+  public CompletableFuture<Void> precompileDefaults() {
+    final ExecutorService executor = Executors.newFixedThreadPool(2, r -> {
+      final Thread thread = new Thread(r, "docbook4j-precompile");
+      thread.setDaemon(true);
+      return thread;
+    });
+    final CompletableFuture<Void> future = precompile(executor,
+        HTMLRenderer.defaultXslStylesheet, FORenderer.defaultXslStylesheet);
+    future.whenComplete((result, e) -> executor.shutdown());
+    return future;
+  }
+
+  /**
+   * Drops the cached templates of the stylesheet with the given URL, for all
+   * engines.
+   */
+  public void invalidate(final String stylesheetUrl) {
+    entries.keySet().removeIf(key -> key.url.equals(stylesheetUrl));
+  }
+
+  /**
+   * Sets the minimum time between two checks of the files of a cached
+   * stylesheet, so frequent renders do not check its whole import graph
+   * every time. Changes are picked up after up to this time; by default,
+   * the files are checked on every lookup.
+   */
+  public void setRecheckInterval(final long interval, final TimeUnit unit) {
+    recheckNanos = unit.toNanos(interval);
+  }
+
+  /**
+   * Drops all cached templates.
+   */
+  public void clear() {
+    entries.clear();
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  private CachedTemplates await(final Key key,
+      final FutureTask<CachedTemplates> task)
+      throws TransformerConfigurationException {
+    try {
+      return task.get();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new TransformerConfigurationException(
+          "Interrupted while compiling stylesheet: " + key, e);
+    } catch (final ExecutionException e) {
+      entries.remove(key, task);
+      final Throwable cause = e.getCause();
+      if (cause instanceof TransformerConfigurationException) {
+        throw (TransformerConfigurationException) cause;
+      }
+      throw new TransformerConfigurationException(
+          "Error compiling stylesheet: " + key, cause);
+    }
+  }
+
+  private static CachedTemplates compile(final FileObject stylesheet,
+      final XsltEngine engine, final StylesheetCache stylesheetCache)
+      throws TransformerConfigurationException, IOException {
+    log.debug("Compiling stylesheet {} with {}", stylesheet.getURL(),
+        engine.getName());
+    try (final XslURIResolver resolver =
+        new XslURIResolver(stylesheetCache)) {
+      final TransformerFactory factory = engine.newTransformerFactory();
+      factory.setURIResolver(resolver);
+      final Templates templates =
+          factory.newTemplates(new FileObjectStreamSource(stylesheet));
+      final Map<String, Long> graph = new LinkedHashMap<>();
+      final Map<String, Long> checked = new LinkedHashMap<>();
+      graph.put(stylesheet.getURL().toExternalForm(),
+          lastModified(stylesheet));
+      for (final FileObject fileObject : resolver.getResolvedFiles()) {
+        graph.put(fileObject.getURL().toExternalForm(),
+            lastModified(fileObject));
+      }
+      final String bundled = BundledStylesheets.URL;
+      for (final Map.Entry<String, Long> entry : graph.entrySet()) {
+        if (bundled == null || !entry.getKey().startsWith(bundled)) {
+          checked.put(entry.getKey(), entry.getValue());
+        }
+      }
+      return new CachedTemplates(templates, graph, checked);
+    }
+  }
+
+  private static long lastModified(final FileObject fileObject)
+      throws FileSystemException {
+    if (!fileObject.exists()) {
+      return -1L;
+    }
+    return fileObject.getContent().getLastModifiedTime();
+  }
+
+  private static final class Key {
+
+    private final String engine;
+
+    private final String url;
+
+    private Key(final String engine, final String url) {
+      this.engine = engine;
+      this.url = url;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      final Key other = (Key) o;
+      return engine.equals(other.engine) && url.equals(other.url);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * engine.hashCode() + url.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return engine + ":" + url;
+    }
+  }
+
+  /**
+   * The URL of the directory of the bundled DocBook stylesheets, resolved on
+   * first use.
+   */
+  private static final class BundledStylesheets {
+
+    private static final String URL = resolve();
+
+    private static String resolve() {
+      try (final FileObject version =
+          FileObjectUtils.resolveFile("res:xsl/docbook/VERSION.xsl")) {
+        return version.getParent().getURL().toExternalForm() + "/";
+      } catch (final FileSystemException e) {
+        log.warn("Error resolving the bundled stylesheets", e);
+        return null;
+      }
+    }
+  }
+
+  private static final class CachedTemplates {
+
+    private final Templates templates;
+
+    private final Map<String, Long> importGraph;
+
+    /**
+     * The files of the import graph which may change.
+     */
+    private final Map<String, Long> checkedFiles;
+
+    private volatile long checkedAt = System.nanoTime();
+
+    private CachedTemplates(final Templates templates,
+        final Map<String, Long> importGraph,
+        final Map<String, Long> checkedFiles) {
+      this.templates = templates;
+      this.importGraph = Collections.unmodifiableMap(importGraph);
+      this.checkedFiles = checkedFiles;
+    }
+
+    private boolean isUpToDate(final long recheckNanos) {
+      final long now = System.nanoTime();
+      if (recheckNanos > 0 && now - checkedAt < recheckNanos) {
+        return true;
+      }
+      for (final Map.Entry<String, Long> entry : checkedFiles.entrySet()) {
+        try {
+          final FileObject fileObject =
+              FileObjectUtils.resolveFile(entry.getKey());
+          if (lastModified(fileObject) != entry.getValue()) {
+            return false;
+          }
+        } catch (final FileSystemException e) {
+          return false;
+        }
+      }
+      checkedAt = now;
+      return true;
+    }
+  }
+
+}
@@ -0,0 +1,788 @@
+package com.google.code.docbook4j.renderer;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+
+import com.google.code.docbook4j.FileObjectUtils;
+import com.google.code.docbook4j.cache.Digests;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.NamespaceSupport;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * Resolves the XIncludes of a document, replaying included files from a
+ * {@link FragmentCache} instead of parsing them on every include.
+ * <p>
+ * Supports xml and text includes, fallbacks, and pointers given as an id or
+ * with the {@code element()} scheme. Like Xerces, the top level elements of
+ * an included file get an {@code xml:base} attribute with the include's
+ * {@code href}, so relative references in the file keep working.
+ */
+final class XIncludeFilter extends XMLFilterImpl implements LexicalHandler {
+
+  static final String XINCLUDE_NAMESPACE = "http://www.w3.org/2001/XInclude";
+
+  private static final String XML_NAMESPACE =
+      "http://www.w3.org/XML/1998/namespace";
+
+  private static final String LEXICAL_HANDLER_PROPERTY =
+      "http://xml.org/sax/properties/lexical-handler";
+
+  private static final Pattern ELEMENT_SCHEME =
+      Pattern.compile("element\\((.+)\\)");
+
+  private static final Pattern ABSOLUTE_URI =
+      Pattern.compile("[a-zA-Z][a-zA-Z0-9+.-]+:.*");
+
+  /**
+   * Notified of each file included while parsing.
+   */
+  interface Listener {
+
+    void included(String uri, String hash);
+  }
+
+  private final FragmentCache cache;
+
+  private final SAXParserPool parserPool;
+
+  private final Consumer<XMLReader> readerConfiguration;
+
+  private final Deque<Include> includes = new ArrayDeque<>();
+
+  private final Deque<Base> bases = new ArrayDeque<>();
+
+  private final Set<String> including = new HashSet<>();
+
+  private LexicalHandler lexicalHandler;
+
+  private Listener listener;
+
+  private String pendingBase;
+
+  private int depth;
+
+  XIncludeFilter(final XMLReader parent, final FragmentCache cache,
+      final SAXParserPool parserPool,
+      final Consumer<XMLReader> readerConfiguration) {
+    super(parent);
+    this.cache = cache;
+    this.parserPool = parserPool;
+    this.readerConfiguration = readerConfiguration;
+  }
+
+  void setListener(final Listener listener) {
+    this.listener = listener;
+  }
+
+  @Override
+  public void parse(final InputSource input) throws SAXException, IOException {
+    includes.clear();
+    bases.clear();
+    including.clear();
+    depth = 0;
+    if (input.getSystemId() != null) {
+      bases.push(new Base(0, input.getSystemId()));
+      including.add(input.getSystemId());
+    }
+    super.parse(input);
+  }
+
+  @Override
+  public void setProperty(final String name, final Object value)
+      throws SAXNotRecognizedException, SAXNotSupportedException {
+    if (LEXICAL_HANDLER_PROPERTY.equals(name)) {
+      // comments and CDATA sections are suppressed like other content
+      super.setProperty(name, value != null ? this : null);
+      lexicalHandler = (LexicalHandler) value;
+      return;
+    }
+    super.setProperty(name, value);
+  }
+
+  @Override
+  public void startElement(final String uri, final String localName,
+      final String qName, final Attributes atts) throws SAXException {
+    if (isSuppressed()) {
+      depth++;
+      final Include include = includes.peek();
+      if (depth == include.depth + 1 && include.error != null
+          && include.fallbackDepth < 0 && XINCLUDE_NAMESPACE.equals(uri)
+          && "fallback".equals(localName)) {
+        include.fallbackDepth = depth;
+      }
+      return;
+    }
+    depth++;
+    final String includedBase = pendingBase;
+    pendingBase = null;
+    if (XINCLUDE_NAMESPACE.equals(uri) && "include".equals(localName)) {
+      // the include's children are suppressed once it is done
+      includes.push(include(atts));
+      return;
+    }
+    if (includedBase != null) {
+      bases.push(new Base(depth, includedBase));
+    } else {
+      final String base = atts.getValue(XML_NAMESPACE, "base");
+      if (base != null) {
+        bases.push(new Base(depth, resolveUri(base)));
+      }
+    }
+    super.startElement(uri, localName, qName, atts);
+  }
+
+  @Override
+  public void endElement(final String uri, final String localName,
+      final String qName) throws SAXException {
+    final Include include = includes.peek();
+    if (include != null && depth == include.depth) {
+      includes.pop();
+      depth--;
+      if (include.error != null && include.fallbackDepth < 0) {
+        throw new SAXException("Error including " + include.href + "!",
+            include.error);
+      }
+      return;
+    }
+    if (include != null
+        && (include.fallbackDepth < 0 || depth <= include.fallbackDepth)) {
+      depth--;
+      return;
+    }
+    if (!bases.isEmpty() && bases.peek().depth == depth) {
+      bases.pop();
+    }
+    depth--;
+    super.endElement(uri, localName, qName);
+  }
+
+  @Override
+  public void characters(final char[] ch, final int start, final int length)
+      throws SAXException {
+    if (!isSuppressed()) {
+      super.characters(ch, start, length);
+    }
+  }
+
+  @Override
+  public void ignorableWhitespace(final char[] ch, final int start,
+      final int length) throws SAXException {
+    if (!isSuppressed()) {
+      super.ignorableWhitespace(ch, start, length);
+    }
+  }
+
+  @Override
+  public void processingInstruction(final String target, final String data)
+      throws SAXException {
+    if (!isSuppressed()) {
+      super.processingInstruction(target, data);
+    }
+  }
+
+  @Override
+  public void startPrefixMapping(final String prefix, final String uri)
+      throws SAXException {
+    if (!isSuppressed()) {
+      super.startPrefixMapping(prefix, uri);
+    }
+  }
+
+  @Override
+  public void endPrefixMapping(final String prefix) throws SAXException {
+    if (!isSuppressed()) {
+      super.endPrefixMapping(prefix);
+    }
+  }
+
+  @Override
+  public void skippedEntity(final String name) throws SAXException {
+    if (!isSuppressed()) {
+      super.skippedEntity(name);
+    }
+  }
+
+  @Override
+  public void startDTD(final String name, final String publicId,
+      final String systemId) throws SAXException {
+    if (lexicalHandler != null) {
+      lexicalHandler.startDTD(name, publicId, systemId);
+    }
+  }
+
+  @Override
+  public void endDTD() throws SAXException {
+    if (lexicalHandler != null) {
+      lexicalHandler.endDTD();
+    }
+  }
+
+  @Override
+  public void startEntity(final String name) throws SAXException {
+    if (lexicalHandler != null && !isSuppressed()) {
+      lexicalHandler.startEntity(name);
+    }
+  }
+
+  @Override
+  public void endEntity(final String name) throws SAXException {
+    if (lexicalHandler != null && !isSuppressed()) {
+      lexicalHandler.endEntity(name);
+    }
+  }
+
+  @Override
+  public void startCDATA() throws SAXException {
+    if (lexicalHandler != null && !isSuppressed()) {
+      lexicalHandler.startCDATA();
+    }
+  }
+
+  @Override
+  public void endCDATA() throws SAXException {
+    if (lexicalHandler != null && !isSuppressed()) {
+      lexicalHandler.endCDATA();
+    }
+  }
+
+  @Override
+  public void comment(final char[] ch, final int start, final int length)
+      throws SAXException {
+    if (lexicalHandler != null && !isSuppressed()) {
+      lexicalHandler.comment(ch, start, length);
+    }
+  }
+
+  /**
+   * Returns true while inside an include, but not inside its active
+   * fallback.
+   */
+  private boolean isSuppressed() {
+    final Include include = includes.peek();
+    return include != null
+        && (include.fallbackDepth < 0 || depth < include.fallbackDepth);
+  }
+
+  private Include include(final Attributes atts) throws SAXException {
+    final String href = atts.getValue("href");
+    final Include include = new Include(depth, href);
+
+    // errors up to here are resource errors, handled by the fallback
+    final FileObject file;
+    final String uri;
+    final String text;
+    final Pointer pointer;
+    FragmentCache.Fragment fragment = null;
+    try {
+      if (href == null || href.isEmpty()) {
+        throw new SAXException("Includes without href are not supported!");
+      }
+      file = resolveFile(href);
+      uri = file.getURL().toExternalForm();
+      if ("text".equals(atts.getValue("parse"))) {
+        text = readText(file, uri, atts.getValue("encoding"));
+        pointer = null;
+      } else if (atts.getValue("parse") == null
+          || "xml".equals(atts.getValue("parse"))) {
+        if (including.contains(uri)) {
+          throw new SAXException("Inclusion loop: " + uri);
+        }
+        pointer = Pointer.parse(atts.getValue("xpointer"));
+        fragment = getFragment(file, uri);
+        text = null;
+      } else {
+        throw new SAXException("Unsupported parse type: "
+            + atts.getValue("parse"));
+      }
+    } catch (final IOException | SAXException e) {
+      include.error = e;
+      return include;
+    }
+
+    if (text != null) {
+      final char[] chars = text.toCharArray();
+      super.characters(chars, 0, chars.length);
+      return include;
+    }
+    including.add(uri);
+    bases.push(new Base(depth, uri));
+    try {
+      final FragmentHandler handler =
+          new FragmentHandler(href, uri, pointer);
+      final XMLReader replay = fragment.getEvents().newReader(null);
+      replay.setContentHandler(handler);
+      if (lexicalHandler != null) {
+        replay.setProperty(LEXICAL_HANDLER_PROPERTY, handler);
+      }
+      replay.parse(uri);
+      if (!handler.isMatched()) {
+        include.error = new SAXException("Pointer "
+            + atts.getValue("xpointer") + " not found in " + uri);
+      }
+    } catch (final IOException e) {
+      throw new SAXException(e);
+    } finally {
+      bases.pop();
+      including.remove(uri);
+    }
+    return include;
+  }
+
+  private FragmentCache.Fragment getFragment(final FileObject file,
+      final String uri) throws IOException, SAXException {
+    if (!file.exists()) {
+      throw new FileNotFoundException(uri);
+    }
+    long lastModified;
+    try {
+      lastModified = file.getContent().getLastModifiedTime();
+    } catch (final FileSystemException e) {
+      // not cacheable
+      lastModified = -1L;
+    }
+    FragmentCache.Fragment fragment =
+        lastModified >= 0 ? cache.get(uri, lastModified) : null;
+    if (fragment == null) {
+      fragment = parseFragment(file, uri, lastModified);
+      if (lastModified >= 0) {
+        cache.put(uri, fragment);
+      }
+    }
+    if (listener != null) {
+      listener.included(uri, fragment.getHash());
+    }
+    return fragment;
+  }
+
+  private FragmentCache.Fragment parseFragment(final FileObject file,
+      final String uri, final long lastModified)
+      throws IOException, SAXException {
+    final PreparedTemplate.Recorder recorder = PreparedTemplate.rawRecorder();
+    final MessageDigest digest = Digests.newDigest();
+    final SAXParser parser;
+    try {
+      parser = parserPool.borrow();
+    } catch (final ParserConfigurationException e) {
+      throw new SAXException(e);
+    }
+    try (InputStream in = new DigestInputStream(
+        file.getContent().getInputStream(), digest)) {
+      final XMLReader reader = parser.getXMLReader();
+      readerConfiguration.accept(reader);
+      reader.setEntityResolver(getEntityResolver());
+      reader.setErrorHandler(getErrorHandler());
+      reader.setContentHandler(recorder);
+      reader.setProperty(LEXICAL_HANDLER_PROPERTY, recorder);
+      final InputSource input = new InputSource(in);
+      input.setSystemId(uri);
+      reader.parse(input);
+    } finally {
+      parserPool.release(parser);
+    }
+    return new FragmentCache.Fragment(recorder.toTemplate(uri, uri),
+        lastModified, Digests.toHex(digest.digest()));
+  }
+
+  private String readText(final FileObject file, final String uri,
+      final String encoding) throws IOException {
+    final byte[] content;
+    try (InputStream in = file.getContent().getInputStream()) {
+      content = IOUtils.toByteArray(in);
+    }
+    if (listener != null) {
+      listener.included(uri, Digests.sha256(content));
+    }
+    return new String(content,
+        Charset.forName(encoding != null ? encoding : "UTF-8"));
+  }
+
+  private FileObject resolveFile(final String href)
+      throws FileSystemException {
+    final Base base = bases.peek();
+    if (base == null || ABSOLUTE_URI.matcher(href).matches()) {
+      return FileObjectUtils.resolveFile(href);
+    }
+    return FileObjectUtils.resolveFile(base.uri).getParent()
+        .resolveFile(href);
+  }
+
+  private String resolveUri(final String href) {
+    try {
+      return resolveFile(href).getURL().toExternalForm();
+    } catch (final FileSystemException e) {
+      return href;
+    }
+  }
+
+  /**
+   * An open include element.
+   */
+  private static final class Include {
+
+    private final int depth;
+
+    private final String href;
+
+    private Exception error;
+
+    private int fallbackDepth = -1;
+
+    private Include(final int depth, final String href) {
+      this.depth = depth;
+      this.href = href;
+    }
+  }
+
+  /**
+   * The base URI of the elements below the given depth.
+   */
+  private static final class Base {
+
+    private final int depth;
+
+    private final String uri;
+
+    private Base(final int depth, final String uri) {
+      this.depth = depth;
+      this.uri = uri;
+    }
+  }
+
+  /**
+   * The element selected by an include, given by its id and/or the
+   * positions of its ancestors.
+   */
+  private static final class Pointer {
+
+    private final String id;
+
+    private final int[] sequence;
+
+    private Pointer(final String id, final int[] sequence) {
+      this.id = id;
+      this.sequence = sequence;
+    }
+
+    static Pointer parse(final String xpointer) throws SAXException {
+      if (xpointer == null) {
+        return null;
+      }
+      final String pointer = xpointer.trim();
+      final Matcher matcher = ELEMENT_SCHEME.matcher(pointer);
+      if (!matcher.matches()) {
+        if (pointer.isEmpty() || pointer.indexOf('(') >= 0) {
+          throw new SAXException("Unsupported pointer: " + xpointer);
+        }
+        return new Pointer(pointer, new int[0]);
+      }
+      final String[] parts = matcher.group(1).split("/");
+      final int[] sequence = new int[parts.length - 1];
+      try {
+        for (int i = 1; i < parts.length; i++) {
+          sequence[i - 1] = Integer.parseInt(parts[i]);
+        }
+      } catch (final NumberFormatException e) {
+        throw new SAXException("Unsupported pointer: " + xpointer);
+      }
+      if (parts[0].isEmpty() && sequence.length == 0) {
+        throw new SAXException("Unsupported pointer: " + xpointer);
+      }
+      return new Pointer(parts[0].isEmpty() ? null : parts[0], sequence);
+    }
+  }
+
+  /**
+   * Passes the replayed events of an included file, or of the element
+   * selected from it, on to this filter. The selected element gets the
+   * namespace mappings in scope where it is declared.
+   */
+  private final class FragmentHandler extends DefaultHandler
+      implements LexicalHandler {
+
+    private final String href;
+
+    private final String uri;
+
+    private final Pointer pointer;
+
+    private int[] positions = new int[16];
+
+    private int[] children = new int[16];
+
+    private int level;
+
+    private int anchor = -1;
+
+    private int selected;
+
+    private boolean matched;
+
+    private final NamespaceSupport namespaces = new NamespaceSupport();
+
+    private final List<String> declared = new ArrayList<>();
+
+    private final List<String> inScope = new ArrayList<>();
+
+    private FragmentHandler(final String href, final String uri,
+        final Pointer pointer) {
+      this.href = href;
+      this.uri = uri;
+      this.pointer = pointer;
+      this.selected = pointer == null ? 0 : -1;
+      this.matched = pointer == null;
+    }
+
+    boolean isMatched() {
+      return matched;
+    }
+
+    private boolean isSelected() {
+      return selected == 0 || (selected > 0 && level >= selected);
+    }
+
+    @Override
+    public void startElement(final String uri, final String localName,
+        final String qName, final Attributes atts) throws SAXException {
+      level++;
+      if (level >= positions.length) {
+        positions = Arrays.copyOf(positions, level * 2);
+        children = Arrays.copyOf(children, level * 2);
+      }
+      positions[level] = ++children[level - 1];
+      children[level] = 0;
+      if (pointer != null) {
+        namespaces.pushContext();
+        for (int i = 0; i < declared.size(); i += 2) {
+          namespaces.declarePrefix(declared.get(i), declared.get(i + 1));
+        }
+        declared.clear();
+      }
+      if (selected < 0 && !matched && matches(atts)) {
+        selected = level;
+        matched = true;
+        startInScopePrefixes();
+      }
+      if (!isSelected()) {
+        return;
+      }
+      if (level == Math.max(selected, 1)) {
+        XIncludeFilter.this.pendingBase = this.uri;
+        XIncludeFilter.this.startElement(uri, localName, qName,
+            withBase(atts));
+      } else {
+        XIncludeFilter.this.startElement(uri, localName, qName, atts);
+      }
+    }
+
+    private boolean matches(final Attributes atts) {
+      int from = 0;
+      if (pointer.id != null) {
+        if (anchor < 0) {
+          if (!pointer.id.equals(atts.getValue(XML_NAMESPACE, "id"))
+              && !pointer.id.equals(atts.getValue("id"))) {
+            return false;
+          }
+          anchor = level;
+          return pointer.sequence.length == 0;
+        }
+        from = anchor;
+      }
+      if (level - from != pointer.sequence.length) {
+        return false;
+      }
+      for (int i = 0; i < pointer.sequence.length; i++) {
+        if (positions[from + i + 1] != pointer.sequence[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void startInScopePrefixes() throws SAXException {
+      final Enumeration<?> prefixes = namespaces.getPrefixes();
+      while (prefixes.hasMoreElements()) {
+        final String prefix = (String) prefixes.nextElement();
+        if (!"xml".equals(prefix)) {
+          inScope.add(prefix);
+        }
+      }
+      final String defaultNamespace = namespaces.getURI("");
+      if (defaultNamespace != null && !defaultNamespace.isEmpty()) {
+        inScope.add("");
+      }
+      for (final String prefix : inScope) {
+        XIncludeFilter.this.startPrefixMapping(prefix,
+            namespaces.getURI(prefix));
+      }
+    }
+
+    private Attributes withBase(final Attributes atts) {
+      final AttributesImpl result = new AttributesImpl(atts);
+      final int index = result.getIndex(XML_NAMESPACE, "base");
+      if (index >= 0) {
+        result.setValue(index, resolveRelative(href, result.getValue(index)));
+      } else {
+        result.addAttribute(XML_NAMESPACE, "base", "xml:base", "CDATA",
+            href);
+      }
+      return result;
+    }
+
+    @Override
+    public void endElement(final String uri, final String localName,
+        final String qName) throws SAXException {
+      if (isSelected()) {
+        XIncludeFilter.this.endElement(uri, localName, qName);
+      }
+      if (level == selected) {
+        for (final String prefix : inScope) {
+          XIncludeFilter.this.endPrefixMapping(prefix);
+        }
+        inScope.clear();
+        // only the first selected element is included
+        selected = -2;
+      }
+      if (pointer != null) {
+        namespaces.popContext();
+      }
+      if (level == anchor && selected < 0) {
+        anchor = -2;
+      }
+      level--;
+    }
+
+    @Override
+    public void characters(final char[] ch, final int start,
+        final int length) throws SAXException {
+      if (isSelected()) {
+        XIncludeFilter.this.characters(ch, start, length);
+      }
+    }
+
+    @Override
+    public void ignorableWhitespace(final char[] ch, final int start,
+        final int length) throws SAXException {
+      if (isSelected()) {
+        XIncludeFilter.this.ignorableWhitespace(ch, start, length);
+      }
+    }
+
+    @Override
+    public void processingInstruction(final String target,
+        final String data) throws SAXException {
+      if (isSelected()) {
+        XIncludeFilter.this.processingInstruction(target, data);
+      }
+    }
+
+    @Override
+    public void startPrefixMapping(final String prefix, final String uri)
+        throws SAXException {
+      if (selected == 0) {
+        XIncludeFilter.this.startPrefixMapping(prefix, uri);
+      } else if (pointer != null) {
+        declared.add(prefix);
+        declared.add(uri);
+      }
+    }
+
+    @Override
+    public void endPrefixMapping(final String prefix) throws SAXException {
+      if (selected == 0) {
+        XIncludeFilter.this.endPrefixMapping(prefix);
+      }
+    }
+
+    @Override
+    public void skippedEntity(final String name) throws SAXException {
+      if (isSelected()) {
+        XIncludeFilter.this.skippedEntity(name);
+      }
+    }
+
+    @Override
+    public void startDTD(final String name, final String publicId,
+        final String systemId) {
+      // the included file's DTD is not part of the including document
+    }
+
+    @Override
+    public void endDTD() {
+    }
+
+    @Override
+    public void startEntity(final String name) throws SAXException {
+      if (isSelected()) {
+        XIncludeFilter.this.startEntity(name);
+      }
+    }
+
+    @Override
+    public void endEntity(final String name) throws SAXException {
+      if (isSelected()) {
+        XIncludeFilter.this.endEntity(name);
+      }
+    }
+
+    @Override
+    public void startCDATA() throws SAXException {
+      if (isSelected()) {
+        XIncludeFilter.this.startCDATA();
+      }
+    }
+
+    @Override
+    public void endCDATA() throws SAXException {
+      if (isSelected()) {
+        XIncludeFilter.this.endCDATA();
+      }
+    }
+
+    @Override
+    public void comment(final char[] ch, final int start, final int length)
+        throws SAXException {
+      if (isSelected()) {
+        XIncludeFilter.this.comment(ch, start, length);
+      }
+    }
+  }
+
+  private static String resolveRelative(final String href, final String base) {
+    if (ABSOLUTE_URI.matcher(base).matches() || base.startsWith("/")) {
+      return base;
+    }
+    final int slash = href.lastIndexOf('/');
+    return slash >= 0 ? href.substring(0, slash + 1) + base : base;
+  }
+
+}
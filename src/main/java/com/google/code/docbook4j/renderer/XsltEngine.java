@@ -0,0 +1,27 @@
+package com.google.code.docbook4j.renderer;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+
+/**
+ * XSLT processor used to compile and run the DocBook stylesheets. See
+ * {@link XsltEngines} for the engines supported out of the box.
+ */
+public interface XsltEngine {
+
+  /**
+   * Unique name of the engine. Compiled stylesheets are cached per engine
+   * name.
+   */
+  String getName();
+
+  TransformerFactory newTransformerFactory();
+
+  /**
+   * Sets the DocBook parameters this engine needs, e.g. whether DocBook may
+   * call its extension functions. Renderer parameters are applied afterwards
+   * and override these.
+   */
+  void setDefaultParameters(Transformer transformer);
+
+}
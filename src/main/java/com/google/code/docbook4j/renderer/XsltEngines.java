@@ -0,0 +1,62 @@
+package com.google.code.docbook4j.renderer;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+
+/**
+ * Built-in {@link XsltEngine}s.
+ * <p>
+ * The bundled DocBook stylesheets call Xalan extensions, so they run on
+ * {@link #DEFAULT}, {@link #XALAN} and on {@link #SAXON}, for which the
+ * DocBook extensions are switched off. XSLTC cannot compile them; use
+ * {@link #XSLTC} for custom stylesheets that do not call Xalan-interpretive
+ * extension functions. {@link #SAXON} requires Saxon-HE on the classpath.
+ */
+public enum XsltEngines implements XsltEngine {
+
+  DEFAULT(null, true),
+  XALAN("org.apache.xalan.processor.TransformerFactoryImpl", true),
+  XSLTC("org.apache.xalan.xsltc.trax.TransformerFactoryImpl", true),
+  SAXON("net.sf.saxon.TransformerFactoryImpl", false);
+
+  private final String factoryClassName;
+
+  private final boolean extensions;
+
+  XsltEngines(final String factoryClassName, final boolean extensions) {
+    this.factoryClassName = factoryClassName;
+    this.extensions = extensions;
+  }
+
+  @Override
+  public String getName() {
+    return name();
+  }
+
+  @Override
+  public TransformerFactory newTransformerFactory() {
+    if (factoryClassName == null) {
+      return TransformerFactory.newInstance();
+    }
+    return TransformerFactory
+        .newInstance(factoryClassName, XsltEngines.class.getClassLoader());
+  }
+
+  @Override
+  public void setDefaultParameters(final Transformer transformer) {
+    transformer.setParameter("use.extensions", extensions ? "1" : "0");
+    transformer.setParameter("callout.graphics", "0");
+    transformer.setParameter("callout.unicode", "1");
+    transformer.setParameter("callouts.extension", extensions ? "1" : "0");
+  }
+
+  public static XsltEngines lookup(final String name) {
+    for (final XsltEngines engine : values()) {
+      if (engine.name().equalsIgnoreCase(name)) {
+        return engine;
+      }
+    }
+    return null;
+  }
+
+}
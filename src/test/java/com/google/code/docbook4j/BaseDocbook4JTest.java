@@ -16,7 +16,7 @@
 
 package com.google.code.docbook4j;
 
-
+import com.google.code.docbook4j.renderer.Renderer;
 import org.apache.commons.io.IOUtils;
 import org.junit.Assert;
 import org.slf4j.Logger;
@@ -48,6 +48,15 @@ public abstract class BaseDocbook4JTest {
 
     protected abstract String getTargetFolder();
 
+    /**
+     * Renders the document and returns the output as a string.
+     */
+    static String render(Renderer<?> renderer) throws Throwable {
+        try (InputStream in = renderer.render()) {
+            return IOUtils.toString(in, "UTF-8");
+        }
+    }
+
     static final class Project {
 
         private String groupId;
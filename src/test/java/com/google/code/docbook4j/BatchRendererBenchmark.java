@@ -0,0 +1,113 @@
+/*
+ * Copyright 2013 [name of copyright owner]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.code.docbook4j;
+
+import com.google.code.docbook4j.renderer.BatchRenderer;
+import com.google.code.docbook4j.renderer.HTMLRenderer;
+import com.google.code.docbook4j.renderer.PDFRenderer;
+import com.google.code.docbook4j.renderer.RenderJob;
+import com.google.code.docbook4j.renderer.RenderResult;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Measures how the throughput of the {@link BatchRenderer} scales with the
+ * number of threads on the test manual. Not a unit test; run it from the test
+ * classpath, e.g.
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.google.code.docbook4j.BatchRendererBenchmark \
+ *     -Dexec.args="html 16 4"
+ * </pre>
+ * The first argument is the format ({@code html} or {@code pdf}), the second
+ * the number of documents rendered per thread and the third the number of
+ * rounds. Every round runs the batch with 1, 2, 4, ... threads up to twice the
+ * number of available processors and prints the throughput and the speedup
+ * over a single thread. The first rounds warm up the JIT and the caches, so
+ * only the last ones are meaningful; near-linear scaling shows as a speedup
+ * close to the thread count, up to the number of processors.
+ */
+public class BatchRendererBenchmark {
+
+    private static final String source = "zip:"
+            + new File("src/test/resources/testing-default-xsl.zip").getAbsolutePath()
+            + "!testing/manual.xml";
+
+    public static void main(String[] args) throws Throwable {
+        boolean pdf = args.length > 0 && "pdf".equals(args[0]);
+        int documentsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int processors = Runtime.getRuntime().availableProcessors();
+
+        System.out.printf("%d processors%n", processors);
+        System.out.printf("%6s %8s %10s %12s %10s%n", "round", "threads",
+                "documents", "docs/s", "speedup");
+        for (int round = 1; round <= rounds; round++) {
+            double single = 0;
+            for (int threads = 1; threads <= 2 * processors; threads *= 2) {
+                double throughput = run(pdf, threads, threads * documentsPerThread);
+                if (threads == 1) {
+                    single = throughput;
+                }
+                System.out.printf("%6d %8d %10d %12.2f %10.2f%n", round, threads,
+                        threads * documentsPerThread, throughput,
+                        throughput / single);
+            }
+        }
+    }
+
+    private static double run(boolean pdf, int threads, int documents)
+            throws Throwable {
+        List<RenderJob> jobs = new ArrayList<RenderJob>();
+        for (int i = 0; i < documents; i++) {
+            BaseDocbook4JTest.Project project = BaseDocbook4JTest.Project.create();
+            project.setName("Project " + i);
+            jobs.add(RenderJob.create(source).variable("project", project));
+        }
+        long start = System.nanoTime();
+        if (pdf) {
+            render(BatchRenderer.create(PDFRenderer::create, threads), jobs);
+        } else {
+            render(BatchRenderer.create(HTMLRenderer::create, threads), jobs);
+        }
+        return documents * 1e9 / (System.nanoTime() - start);
+    }
+
+    private static void render(BatchRenderer<?> batch, List<RenderJob> jobs)
+            throws Throwable {
+        try {
+            Iterator<RenderResult> results = batch.render(jobs);
+            while (results.hasNext()) {
+                RenderResult result = results.next();
+                if (!result.isSuccess()) {
+                    throw result.getError();
+                }
+                try (InputStream in = result.getContent()) {
+                    IOUtils.toByteArray(in);
+                }
+            }
+        } finally {
+            batch.close();
+        }
+    }
+
+}
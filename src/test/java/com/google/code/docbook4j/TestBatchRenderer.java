@@ -0,0 +1,71 @@
+/*
+ * Copyright 2013 [name of copyright owner]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.docbook4j;
+
+import com.google.code.docbook4j.renderer.BatchRenderer;
+import com.google.code.docbook4j.renderer.HTMLRenderer;
+import com.google.code.docbook4j.renderer.RenderJob;
+import com.google.code.docbook4j.renderer.RenderResult;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+public class TestBatchRenderer {
+
+    private static final String source = "zip:"
+            + new File("src/test/resources/testing-default-xsl.zip").getAbsolutePath()
+            + "!testing/manual.xml";
+
+    @Test
+    public void testRenderBatch() throws Throwable {
+        List<RenderJob> jobs = new ArrayList<RenderJob>();
+        for (int i = 0; i < 4; i++) {
+            BaseDocbook4JTest.Project project = BaseDocbook4JTest.Project.create();
+            project.setName("Project " + i);
+            jobs.add(RenderJob.create(source).variable("project", project));
+        }
+        jobs.add(RenderJob.create("file:does/not/exist.xml"));
+
+        int succeeded = 0;
+        int failed = 0;
+        try (BatchRenderer<HTMLRenderer> batch =
+                     BatchRenderer.create(HTMLRenderer::create, 2)) {
+            Iterator<RenderResult> results = batch.render(jobs);
+            while (results.hasNext()) {
+                RenderResult result = results.next();
+                if (!result.isSuccess()) {
+                    failed++;
+                    continue;
+                }
+                String name = ((BaseDocbook4JTest.Project) result.getJob()
+                        .getVariables().get("project")).getName();
+                try (InputStream in = result.getContent()) {
+                    Assert.assertTrue(IOUtils.toString(in, "UTF-8").contains(name));
+                }
+                succeeded++;
+            }
+        }
+        Assert.assertEquals(4, succeeded);
+        Assert.assertEquals(1, failed);
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2013 [name of copyright owner]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.docbook4j;
+
+import com.google.code.docbook4j.renderer.HTMLRenderer;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.vfs2.FileObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class TestChunkedHTML {
+
+    private static final String source = "zip:"
+            + new File("src/test/resources/testing-default-xsl.zip").getAbsolutePath()
+            + "!testing/manual.xml";
+
+    @Test
+    public void testChunksWrittenToTargetDir() throws Throwable {
+        File dir = new File("target/testout/chunks");
+        FileUtils.deleteDirectory(dir);
+
+        List<FileObject> chunks = HTMLRenderer.create(source)
+                .variable("project", BaseDocbook4JTest.Project.create())
+                .renderChunks(dir.getAbsolutePath());
+
+        Assert.assertTrue(chunks.size() > 1);
+        boolean index = false;
+        for (FileObject chunk : chunks) {
+            index |= "index.html".equals(chunk.getName().getBaseName());
+            Assert.assertTrue(chunk.exists());
+            Assert.assertTrue(chunk.getContent().getSize() > 0);
+        }
+        Assert.assertTrue(index);
+        Assert.assertTrue(FileUtils.readFileToString(new File(dir, "index.html"),
+                "UTF-8").contains("<html"));
+    }
+
+    @Test
+    public void testRenderDuringChunksUsesPageStylesheet() throws Throwable {
+        File dir = new File("target/testout/chunks-render");
+        FileUtils.deleteDirectory(dir);
+
+        final HTMLRenderer renderer = HTMLRenderer.create(source)
+                .variable("project", BaseDocbook4JTest.Project.create());
+        final AtomicReference<String> page = new AtomicReference<String>();
+        renderer.renderChunks(dir.getAbsolutePath(), command -> {
+            if (page.get() == null) {
+                try (InputStream in = renderer.render()) {
+                    page.set(IOUtils.toString(in, "UTF-8"));
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            command.run();
+        });
+
+        Assert.assertTrue(page.get().contains("<html"));
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2013 [name of copyright owner]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.docbook4j;
+
+import com.google.code.docbook4j.renderer.HTMLRenderer;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.xalan.processor.TransformerFactoryImpl;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import java.io.File;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+public class TestCssCache {
+
+    @Test
+    public void testImportsInlinedAndMinified() throws Throwable {
+        File dir = new File("target/testout/css-cache");
+        dir.mkdirs();
+        File base = new File(dir, "base.css");
+        FileUtils.writeStringToFile(base,
+                "@charset \"UTF-8\";\n/* base */\np  {\n  margin : 0 ;\n}\n",
+                "UTF-8");
+        base.setLastModified(1000000000000L);
+        FileUtils.writeStringToFile(new File(dir, "print.css"),
+                "a > b { content: \"x  y\"; }", "UTF-8");
+        FileUtils.writeStringToFile(new File(dir, "main.css"),
+                "@import url(\"base.css\");\n@import 'print.css' print;\n"
+                        + ".chapter, .unused { color: red; }\n", "UTF-8");
+        String baseDir = dir.toURI().toString();
+
+        CssCache previous = XSLTUtils.getCssCache();
+        CssCache cache = new CssCache(1024 * 1024);
+        XSLTUtils.setCssCache(cache);
+        try {
+            Assert.assertEquals("<!--\np{margin:0}@media print{a>b{content:"
+                            + "\"x  y\"}}.chapter,.unused{color:red}\n-->\n",
+                    XSLTUtils.inlineCss(baseDir, "main.css"));
+            XSLTUtils.inlineCss(baseDir, "main.css");
+            Assert.assertEquals(1, cache.getStatistics().getHitCount());
+
+            FileUtils.writeStringToFile(base, "p { margin: 1px }", "UTF-8");
+            base.setLastModified(1000000001000L);
+            Assert.assertTrue(XSLTUtils.inlineCss(baseDir, "main.css")
+                    .startsWith("<!--\np{margin:1px}"));
+
+            String xsl = "<xsl:stylesheet version='1.0'"
+                    + " xmlns:xsl='http://www.w3.org/1999/XSL/Transform'"
+                    + " xmlns:u='xalan://com.google.code.docbook4j.XSLTUtils'>"
+                    + "<xsl:output method='text'/><xsl:param name='dir'/>"
+                    + "<xsl:template match='/'><xsl:value-of"
+                    + " select=\"u:inlineUsedCss($dir, 'main.css', /)\"/>"
+                    + "</xsl:template></xsl:stylesheet>";
+            Transformer transformer = new TransformerFactoryImpl()
+                    .newTransformer(new StreamSource(new StringReader(xsl)));
+            transformer.setParameter("dir", baseDir);
+            StringWriter out = new StringWriter();
+            transformer.transform(new StreamSource(new StringReader(
+                    "<book><chapter role='wide'/></book>")),
+                    new StreamResult(out));
+            Assert.assertTrue(out.toString().endsWith(
+                    "}}.chapter{color:red}\n-->\n"));
+        } finally {
+            XSLTUtils.setCssCache(previous);
+        }
+    }
+
+    @Test
+    public void testGeneratedClassesKept() throws Throwable {
+        File dir = new File("target/testout/css-used");
+        dir.mkdirs();
+        FileUtils.writeStringToFile(new File(dir, "used.css"),
+                ".titlepage { color: red; }\n.toc dt { color: blue; }\n"
+                        + ".navheader { color: green; }\n.unused { color: black; }\n",
+                "UTF-8");
+        File xsl = new File(dir, "used.xsl");
+        FileUtils.writeStringToFile(xsl, "<xsl:stylesheet version='1.0'"
+                + " xmlns:xsl='http://www.w3.org/1999/XSL/Transform'"
+                + " xmlns:u='xalan://com.google.code.docbook4j.XSLTUtils'>"
+                + "<xsl:import href='res:xsl/docbook/xhtml/docbook.xsl'/>"
+                + "<xsl:template name='user.head.content'><style type='text/css'>"
+                + "<xsl:value-of select=\"u:inlineUsedCss('"
+                + dir.toURI() + "', 'used.css', /)\"/>"
+                + "</style></xsl:template></xsl:stylesheet>", "UTF-8");
+
+        String source = "zip:"
+                + new File("src/test/resources/testing-default-xsl.zip").getAbsolutePath()
+                + "!testing/manual.xml";
+        HTMLRenderer renderer = HTMLRenderer.create(source, xsl.toURI().toString())
+                .variable("project", BaseDocbook4JTest.Project.create());
+        String html;
+        try (InputStream in = renderer.render()) {
+            html = IOUtils.toString(in, "UTF-8");
+        }
+        Assert.assertTrue(html.contains(".titlepage{color:red}"));
+        Assert.assertTrue(html.contains(".toc dt{color:blue}"));
+        Assert.assertFalse(html.contains(".unused"));
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2013 [name of copyright owner]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.docbook4j;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Base64;
+
+public class TestDataUriCache {
+
+    private static final byte[] PNG = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n',
+            0x1a, '\n', 0, 0, 0, 0x0d, 'I', 'H', 'D', 'R'};
+
+    @Test
+    public void testImagesInlinedFromCache() throws Throwable {
+        File dir = new File("target/testout/data-uri-cache");
+        dir.mkdirs();
+        File image = new File(dir, "logo.gif");
+        FileUtils.writeByteArrayToFile(image, PNG);
+        image.setLastModified(1000000000000L);
+        String base = dir.toURI().toString();
+
+        DataUriCache previous = XSLTUtils.getDataUriCache();
+        DataUriCache cache = new DataUriCache(1024 * 1024);
+        XSLTUtils.setDataUriCache(cache);
+        try {
+            String first = XSLTUtils.toBase64(base, "logo.gif");
+            String second = XSLTUtils.toBase64(base, "logo.gif");
+
+            Assert.assertSame(first, second);
+            Assert.assertTrue(first.startsWith("data:image/png;base64,"));
+            Assert.assertTrue(Arrays.equals(PNG, Base64.getDecoder()
+                    .decode(first.substring(first.indexOf(',') + 1))));
+            Assert.assertEquals(1, cache.getStatistics().getHitCount());
+
+            byte[] changed = Arrays.copyOf(PNG, PNG.length + 1);
+            FileUtils.writeByteArrayToFile(image, changed);
+            image.setLastModified(1000000001000L);
+            String third = XSLTUtils.toBase64(base, "logo.gif");
+            Assert.assertTrue(Arrays.equals(changed, Base64.getDecoder()
+                    .decode(third.substring(third.indexOf(',') + 1))));
+        } finally {
+            XSLTUtils.setDataUriCache(previous);
+        }
+    }
+
+    @Test
+    public void testMimeTypeDetectedFromContent() {
+        byte[] jpeg = {(byte) 0xff, (byte) 0xd8, (byte) 0xff, (byte) 0xe0};
+        byte[] svg = "<?xml version=\"1.0\"?><svg/>".getBytes();
+        byte[] unknown = {1, 2, 3};
+
+        Assert.assertEquals("image/jpeg",
+                XSLTUtils.detectMimeType(jpeg, jpeg.length, "photo.png"));
+        Assert.assertEquals("image/svg+xml",
+                XSLTUtils.detectMimeType(svg, svg.length, "figure"));
+        Assert.assertEquals("image/png",
+                XSLTUtils.detectMimeType(unknown, unknown.length, "a.png"));
+    }
+
+}
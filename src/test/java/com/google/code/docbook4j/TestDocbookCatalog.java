@@ -0,0 +1,96 @@
+/*
+ * Copyright 2013 [name of copyright owner]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.docbook4j;
+
+import com.google.code.docbook4j.renderer.GrammarCache;
+import com.google.code.docbook4j.renderer.HTMLRenderer;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+
+import java.io.File;
+import java.io.InputStream;
+
+public class TestDocbookCatalog {
+
+    private static final String publicId = "-//OASIS//DTD DocBook XML 5.1b4//EN";
+
+    private static final String systemId =
+            "http://www.oasis-open.org/docbook/xml/5.1b4/dtd/docbook.dtd";
+
+    @Test
+    public void testDtdResolvedToBundledCopy() {
+        InputSource source = DocbookCatalog.getInstance()
+                .resolveEntity(publicId, systemId);
+
+        Assert.assertNotNull(source);
+        Assert.assertTrue(source.getSystemId()
+                .endsWith("xml/docbook/dtd/docbook.dtd"));
+        Assert.assertFalse(source.getSystemId().startsWith("http"));
+    }
+
+    @Test
+    public void testStylesheetUriResolvedToResource() {
+        Assert.assertEquals("res:xsl/docbook/xhtml/docbook.xsl",
+                DocbookCatalog.getInstance().resolveUri(
+                        "http://docbook.sourceforge.net/release/xsl-ns/current/xhtml/docbook.xsl"));
+    }
+
+    @Test
+    public void testRenderDocumentWithDoctype() throws Throwable {
+        File xml = new File("target/testout/catalog/doctype.xml");
+        FileUtils.writeStringToFile(xml, "<?xml version=\"1.0\"?>"
+                + "<!DOCTYPE article PUBLIC \"" + publicId + "\" \"" + systemId + "\">"
+                + "<article xmlns=\"http://docbook.org/ns/docbook\" version=\"5.0\">"
+                + "<title>Catalog</title><para>Resolved offline.</para></article>",
+                "UTF-8");
+
+        try (InputStream in = HTMLRenderer.create(xml.toURI().toString()).render()) {
+            Assert.assertTrue(IOUtils.toString(in, "UTF-8")
+                    .contains("Resolved offline."));
+        }
+    }
+
+    @Test
+    public void testGrammarsCachedUntilCleared() throws Throwable {
+        GrammarCache cache = GrammarCache.getInstance();
+        renderWithDoctype("first");
+        Assert.assertTrue(cache.getStatistics().getSize() > 0);
+
+        long hits = cache.getStatistics().getHitCount();
+        renderWithDoctype("second");
+        Assert.assertTrue(cache.getStatistics().getHitCount() > hits);
+
+        cache.clear();
+        Assert.assertEquals(0, cache.getStatistics().getSize());
+    }
+
+    private void renderWithDoctype(String name) throws Throwable {
+        File xml = new File("target/testout/catalog/" + name + ".xml");
+        FileUtils.writeStringToFile(xml, "<?xml version=\"1.0\"?>"
+                + "<!DOCTYPE article PUBLIC \"" + publicId + "\" \"" + systemId + "\">"
+                + "<article xmlns=\"http://docbook.org/ns/docbook\" version=\"5.0\">"
+                + "<title>" + name + "</title><para>" + name + "</para></article>",
+                "UTF-8");
+
+        try (InputStream in = HTMLRenderer.create(xml.toURI().toString()).render()) {
+            Assert.assertTrue(IOUtils.toString(in, "UTF-8").contains(name));
+        }
+    }
+
+}
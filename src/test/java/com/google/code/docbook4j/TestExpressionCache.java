@@ -0,0 +1,110 @@
+/*
+ * Copyright 2013 [name of copyright owner]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.docbook4j;
+
+import com.google.code.docbook4j.eval.ExpressionEvaluator;
+import com.google.code.docbook4j.eval.ExpressionEvaluators;
+import com.google.code.docbook4j.renderer.HTMLRenderer;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class TestExpressionCache {
+
+    private static final String source = "zip:"
+            + new File("src/test/resources/testing-default-xsl.zip").getAbsolutePath()
+            + "!testing/manual.xml";
+
+    @Test
+    public void testCompiledOnce() {
+        Map<String, Object> context = Collections.<String, Object>singletonMap("a", 20);
+        for (ExpressionEvaluators e : ExpressionEvaluators.values()) {
+            ExpressionEvaluator evaluator = e.getEvaluator();
+            long misses = evaluator.getStatistics().getMissCount();
+            long hits = evaluator.getStatistics().getHitCount();
+
+            Assert.assertEquals("22", evaluator.evaluate("a + 2", context));
+            Assert.assertEquals("22", evaluator.evaluate("a + 2", context));
+
+            Assert.assertEquals(misses + 1, evaluator.getStatistics().getMissCount());
+            Assert.assertEquals(hits + 1, evaluator.getStatistics().getHitCount());
+        }
+    }
+
+    @Test
+    public void testFailedExpressionRunOnce() {
+        List<String> list = new ArrayList<String>();
+        Map<String, Object> context = Collections.<String, Object>singletonMap("list", list);
+        String expression = "list.add('a'); list.get(5)";
+
+        ExpressionEvaluator mvel = ExpressionEvaluators.MVEL.getEvaluator();
+        Assert.assertEquals(expression, mvel.evaluate(expression, context));
+        Assert.assertEquals(expression, mvel.evaluate(expression, context));
+        Assert.assertEquals(2, list.size());
+    }
+
+    @Test
+    public void testNonPublicPropertiesInterpreted() {
+        Map<String, Object> context = Collections.<String, Object>singletonMap("o", new Root());
+        String expression = "o.hidden.name";
+
+        ExpressionEvaluator mvel = ExpressionEvaluators.MVEL.getEvaluator();
+        Assert.assertEquals("hidden-name", mvel.evaluate(expression, context));
+        Assert.assertEquals("hidden-name", mvel.evaluate(expression, context));
+    }
+
+    @Test
+    public void testPrecompileExpressions() throws Throwable {
+        HTMLRenderer renderer = HTMLRenderer.create(source)
+                .variable("project", BaseDocbook4JTest.Project.create());
+        renderer.precompileExpressions();
+
+        ExpressionEvaluator mvel = ExpressionEvaluators.MVEL.getEvaluator();
+        ExpressionEvaluator ognl = ExpressionEvaluators.OGNL.getEvaluator();
+        long mvelMisses = mvel.getStatistics().getMissCount();
+        long ognlMisses = ognl.getStatistics().getMissCount();
+        try (InputStream in = renderer.render()) {
+            IOUtils.toByteArray(in);
+        }
+
+        Assert.assertEquals(mvelMisses, mvel.getStatistics().getMissCount());
+        Assert.assertEquals(ognlMisses, ognl.getStatistics().getMissCount());
+    }
+
+    public static class Root {
+
+        public Hidden getHidden() {
+            return new Hidden();
+        }
+
+    }
+
+    static class Hidden {
+
+        public String getName() {
+            return "hidden-name";
+        }
+
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013 [name of copyright owner]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.docbook4j;
+
+import com.google.code.docbook4j.renderer.FopFactoryCache;
+import com.google.code.docbook4j.renderer.PDFRenderer;
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+
+public class TestFontCache extends BaseDocbook4JTest {
+
+    private static final String source = "zip:"
+            + new File("src/test/resources/testing-default-xsl.zip").getAbsolutePath()
+            + "!testing/manual.xml";
+
+    private static final String userConfig = "<fop version=\"1.0\"><renderers>"
+            + "<renderer mime=\"application/pdf\"><fonts><auto-detect/></fonts>"
+            + "</renderer></renderers></fop>";
+
+    @Override
+    protected String getTargetFolder() {
+        return "fontcache";
+    }
+
+    @Test
+    public void testGenerateAndUseFontCache() throws Throwable {
+        File dir = new File("target/testout/" + getTargetFolder());
+        dir.mkdirs();
+        File config = new File(dir, "fop.xml");
+        FileUtils.writeStringToFile(config, userConfig, "UTF-8");
+        File cache = new File(dir, "fop-fonts.cache");
+        cache.delete();
+
+        PDFRenderer.create().userConfig(config.toURI().toString())
+                .fontCache(cache.getPath()).generateFontCache();
+        Assert.assertTrue(cache.length() > 0);
+
+        writeToFile(PDFRenderer.create(source)
+                .variable("project", Project.create())
+                .userConfig(config.toURI().toString())
+                .fontCache(cache.getPath()).render(), "01.pdf");
+    }
+
+    @Test
+    public void testWorkingCopiesDeleted() throws Throwable {
+        File dir = new File("target/testout/" + getTargetFolder());
+        dir.mkdirs();
+        File config = new File(dir, "fop-copies.xml");
+        FileUtils.writeStringToFile(config, userConfig, "UTF-8");
+        File cache = new File(dir, "fop-copies.cache");
+        int copies = countWorkingCopies();
+
+        PDFRenderer.create().userConfig(config.toURI().toString())
+                .fontCache(cache.getPath()).generateFontCache();
+        Assert.assertEquals(copies, countWorkingCopies());
+
+        writeToFile(PDFRenderer.create(source)
+                .variable("project", Project.create())
+                .userConfig(config.toURI().toString())
+                .fontCache(cache.getPath()).render(), "02.pdf");
+        Assert.assertEquals(copies + 1, countWorkingCopies());
+
+        FopFactoryCache.getInstance().invalidateAll();
+        Assert.assertEquals(copies, countWorkingCopies());
+    }
+
+    private static int countWorkingCopies() {
+        String[] names = new File(System.getProperty("java.io.tmpdir")).list(
+                (d, name) -> name.startsWith("docbook4j-fonts")
+                        && name.endsWith(".cache"));
+        return names != null ? names.length : 0;
+    }
+
+}
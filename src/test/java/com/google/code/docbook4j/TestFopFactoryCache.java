@@ -0,0 +1,71 @@
+/*
+ * Copyright 2013 [name of copyright owner]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.docbook4j;
+
+import com.google.code.docbook4j.renderer.FopFactoryCache;
+import com.google.code.docbook4j.renderer.PDFRenderer;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.fop.apps.Fop;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestFopFactoryCache extends BaseDocbook4JTest {
+
+    private static final String source = "zip:"
+            + new File("src/test/resources/testing-default-xsl.zip").getAbsolutePath()
+            + "!testing/manual.xml";
+
+    @Override
+    protected String getTargetFolder() {
+        return "fopfactory";
+    }
+
+    @Test
+    public void testFopFactoryReused() throws Throwable {
+        FopFactoryCache cache = FopFactoryCache.getInstance();
+        writeToFile(PDFRenderer.create(source)
+                .variable("project", Project.create()).render(), "01.pdf");
+        long hits = cache.getStatistics().getHitCount();
+
+        writeToFile(PDFRenderer.create(source)
+                .variable("project", Project.create()).render(), "02.pdf");
+        Assert.assertEquals(hits + 1, cache.getStatistics().getHitCount());
+
+        cache.invalidateAll();
+        Assert.assertEquals(0, cache.getStatistics().getSize());
+    }
+
+    @Test
+    public void testFopCreatedThroughHook() throws Throwable {
+        final AtomicInteger created = new AtomicInteger();
+        PDFRenderer renderer = new PDFRenderer() {
+            @Override
+            protected Fop createFop(FileObject xmlSource, FileObject userConfigXml,
+                                    OutputStream out) throws Docbook4JException {
+                created.incrementAndGet();
+                return super.createFop(xmlSource, userConfigXml, out);
+            }
+        };
+        writeToFile(renderer.xml(source).variable("project", Project.create())
+                .render(), "03.pdf");
+        Assert.assertEquals(1, created.get());
+    }
+
+}
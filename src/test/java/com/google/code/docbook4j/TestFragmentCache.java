@@ -0,0 +1,116 @@
+/*
+ * Copyright 2013 [name of copyright owner]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.docbook4j;
+
+import com.google.code.docbook4j.renderer.FragmentCache;
+import com.google.code.docbook4j.renderer.HTMLRenderer;
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+
+public class TestFragmentCache {
+
+    private static final String source = "zip:"
+            + new File("src/test/resources/testing-default-xsl.zip").getAbsolutePath()
+            + "!testing/manual.xml";
+
+    private static final String book = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<article version=\"5.0\" xmlns=\"http://docbook.org/ns/docbook\""
+            + " xmlns:xi=\"http://www.w3.org/2001/XInclude\">\n"
+            + "<title>Article</title>\n"
+            + "<xi:include href=\"missing.xml\"><xi:fallback><para>Fallback text</para>"
+            + "</xi:fallback></xi:include>\n"
+            + "<xi:include href=\"shared/paras.xml\" xpointer=\"second\"/>\n"
+            + "<para><xi:include href=\"shared/note.txt\" parse=\"text\"/></para>\n"
+            + "<xi:include href=\"shared/paras.xml\" xpointer=\"element(/1/2)\"/>\n"
+            + "</article>\n";
+
+    private static String paras(String text) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<section xmlns=\"http://docbook.org/ns/docbook\"><title>Shared</title>"
+                + "<para>First para</para><para xml:id=\"second\">" + text + "</para></section>\n";
+    }
+
+    @Test
+    public void testIncludesReplayedFromCache() throws Throwable {
+        FragmentCache cache = new FragmentCache(1024 * 1024);
+        String first = BaseDocbook4JTest.render(HTMLRenderer.create(source).fragmentCache(cache)
+                .variable("project", BaseDocbook4JTest.Project.create()));
+        Assert.assertTrue(first.contains("The Dummy Chapter"));
+        long misses = cache.getStatistics().getMissCount();
+        Assert.assertEquals(0, cache.getStatistics().getHitCount());
+
+        String second = BaseDocbook4JTest.render(HTMLRenderer.create(source).fragmentCache(cache)
+                .variable("project", BaseDocbook4JTest.Project.create()));
+        Assert.assertEquals(first, second);
+        Assert.assertEquals(misses, cache.getStatistics().getHitCount());
+        Assert.assertEquals(misses, cache.getStatistics().getMissCount());
+    }
+
+    @Test
+    public void testFallbackPointersAndTextIncludes() throws Throwable {
+        File dir = new File("target/testout/xinclude");
+        FileUtils.deleteDirectory(dir);
+        File xml = new File(dir, "article.xml");
+        File shared = new File(dir, "shared/paras.xml");
+        FileUtils.writeStringToFile(xml, book, "UTF-8");
+        FileUtils.writeStringToFile(shared, paras("Second para"), "UTF-8");
+        FileUtils.writeStringToFile(new File(dir, "shared/note.txt"), "Text <include>",
+                "UTF-8");
+        FragmentCache cache = new FragmentCache(1024 * 1024);
+
+        String html = BaseDocbook4JTest.render(HTMLRenderer.create(xml.getAbsolutePath())
+                .fragmentCache(cache));
+        Assert.assertTrue(html.contains("Fallback text"));
+        Assert.assertTrue(html.contains("Second para"));
+        Assert.assertTrue(html.contains("Text &lt;include&gt;"));
+        Assert.assertTrue(html.contains("First para"));
+        Assert.assertEquals(1, cache.getStatistics().getHitCount());
+
+        FileUtils.writeStringToFile(shared, paras("Changed para"), "UTF-8");
+        shared.setLastModified(shared.lastModified() + 2000);
+        html = BaseDocbook4JTest.render(HTMLRenderer.create(xml.getAbsolutePath())
+                .fragmentCache(cache));
+        Assert.assertTrue(html.contains("Changed para"));
+    }
+
+    @Test
+    public void testPointerIncludesKeepLexicalEventsAndNamespaces() throws Throwable {
+        File dir = new File("target/testout/xinclude-pointer");
+        FileUtils.deleteDirectory(dir);
+        File xml = new File(dir, "article.xml");
+        FileUtils.writeStringToFile(xml, "<article xmlns:xi=\"http://www.w3.org/2001/XInclude\">"
+                + "<xi:include href=\"paras.xml\" xpointer=\"second\"/></article>", "UTF-8");
+        FileUtils.writeStringToFile(new File(dir, "paras.xml"), "<!-- prolog -->"
+                + "<section xmlns:x=\"urn:x\"><para><!-- first --></para>"
+                + "<para xml:id=\"second\"><!-- second --><![CDATA[a < b]]></para>"
+                + "</section>", "UTF-8");
+        File xsl = new File(dir, "check.xsl");
+        FileUtils.writeStringToFile(xsl, "<xsl:stylesheet version='1.0'"
+                + " xmlns:xsl='http://www.w3.org/1999/XSL/Transform'>"
+                + "<xsl:output method='text'/><xsl:template match='/'>"
+                + "<xsl:for-each select='//comment()'><xsl:value-of select='.'/>,</xsl:for-each>"
+                + "<xsl:value-of select='//para/namespace::x'/>,<xsl:value-of select='//para'/>"
+                + "</xsl:template></xsl:stylesheet>", "UTF-8");
+
+        String text = BaseDocbook4JTest.render(HTMLRenderer.create(xml.getAbsolutePath(),
+                xsl.getAbsolutePath()).fragmentCache(new FragmentCache(1024 * 1024)));
+        Assert.assertEquals("second ,urn:x,a < b", text.trim());
+    }
+
+}
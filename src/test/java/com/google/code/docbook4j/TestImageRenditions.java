@@ -0,0 +1,147 @@
+/*
+ * Copyright 2013 [name of copyright owner]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.docbook4j;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.vfs2.FileObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Base64;
+
+public class TestImageRenditions {
+
+    @Test
+    public void testBigImagesResampled() throws Throwable {
+        File dir = new File("target/testout/image-renditions");
+        FileUtils.deleteDirectory(dir);
+        dir.mkdirs();
+        File big = new File(dir, "big.png");
+        ImageIO.write(new BufferedImage(3000, 2000,
+                BufferedImage.TYPE_INT_RGB), "png", big);
+        File small = new File(dir, "small.png");
+        ImageIO.write(new BufferedImage(100, 100,
+                BufferedImage.TYPE_INT_RGB), "png", small);
+
+        ImageRenditions renditions = ImageRenditions
+                .create(new File(dir, "cache"), 64 * 1024 * 1024)
+                .withDpi(100).withMaxSize(6.5, 9);
+        try (FileObject fo = FileObjectUtils.resolveFile(big.toURI().toString())) {
+            BufferedImage first = read(renditions.getRendition(fo));
+            Assert.assertEquals(650, first.getWidth());
+            Assert.assertEquals(433, first.getHeight());
+            // the intrinsic size at 72 dpi is kept
+            Assert.assertEquals(3000 / 72.0, 650 / dpi(renditions
+                    .getRendition(fo)), 0.1);
+        }
+        Assert.assertEquals(1, renditions.getStatistics().getHitCount());
+        Assert.assertEquals(1, renditions.getStatistics().getSize());
+
+        File photo = new File(dir, "photo.jpg");
+        ImageIO.write(new BufferedImage(3000, 2000,
+                BufferedImage.TYPE_INT_RGB), "jpeg", photo);
+        try (FileObject fo = FileObjectUtils.resolveFile(photo.toURI().toString())) {
+            // JFIF stores whole dots per inch, so 16 instead of 15.6
+            Assert.assertEquals(667, read(renditions.getRendition(fo)).getWidth());
+            Assert.assertEquals(3000 / 72.0, 667 / dpi(renditions
+                    .getRendition(fo)), 0.1);
+        }
+
+        try (FileObject fo = FileObjectUtils.resolveFile(small.toURI().toString());
+             InputStream in = renditions.getRendition(fo)) {
+            Assert.assertTrue(Arrays.equals(FileUtils.readFileToByteArray(small),
+                    IOUtils.toByteArray(in)));
+        }
+        Assert.assertEquals(2, renditions.getStatistics().getSize());
+    }
+
+    @Test
+    public void testUndecodableImagesServedAsTheyAre() throws Throwable {
+        File dir = new File("target/testout/image-renditions-undecodable");
+        FileUtils.deleteDirectory(dir);
+        dir.mkdirs();
+        byte[] content = new byte[4096];
+        Arrays.fill(content, (byte) 0x55);
+        content[0] = (byte) 0xff;
+        content[1] = (byte) 0xd8;
+        content[2] = (byte) 0xff;
+        File broken = new File(dir, "broken.jpg");
+        FileUtils.writeByteArrayToFile(broken, content);
+
+        ImageRenditions renditions = ImageRenditions
+                .create(new File(dir, "cache"), 64 * 1024 * 1024);
+        try (FileObject fo = FileObjectUtils.resolveFile(broken.toURI().toString())) {
+            for (int i = 0; i < 2; i++) {
+                try (InputStream in = renditions.getRendition(fo)) {
+                    Assert.assertTrue(Arrays.equals(content, IOUtils.toByteArray(in)));
+                }
+            }
+        }
+        Assert.assertEquals(0, renditions.getStatistics().getSize());
+    }
+
+    @Test
+    public void testRenditionsInlined() throws Throwable {
+        File dir = new File("target/testout/image-renditions-inlined");
+        FileUtils.deleteDirectory(dir);
+        dir.mkdirs();
+        ImageIO.write(new BufferedImage(2000, 1000,
+                BufferedImage.TYPE_INT_RGB), "png", new File(dir, "big.png"));
+
+        ImageRenditions renditions = ImageRenditions
+                .create(new File(dir, "cache"), 64 * 1024 * 1024)
+                .withDpi(ImageRenditions.SCREEN_DPI).withMaxSize(5, 5);
+        ImageRenditions previous = XSLTUtils.bindImageRenditions(renditions);
+        try {
+            String uri = XSLTUtils.toBase64(dir.toURI().toString(), "big.png");
+            BufferedImage image = read(new ByteArrayInputStream(Base64
+                    .getDecoder().decode(uri.substring(uri.indexOf(',') + 1))));
+            Assert.assertEquals(480, image.getWidth());
+        } finally {
+            XSLTUtils.bindImageRenditions(previous);
+        }
+    }
+
+    private static double dpi(InputStream in) throws Exception {
+        try (ImageInputStream image = ImageIO.createImageInputStream(in)) {
+            ImageReader reader = ImageIO.getImageReaders(image).next();
+            reader.setInput(image);
+            IIOMetadataNode size = (IIOMetadataNode) ((IIOMetadataNode) reader
+                    .getImageMetadata(0).getAsTree("javax_imageio_1.0"))
+                    .getElementsByTagName("HorizontalPixelSize").item(0);
+            return 25.4 / Double.parseDouble(size.getAttribute("value"));
+        } finally {
+            in.close();
+        }
+    }
+
+    private static BufferedImage read(InputStream in) throws Exception {
+        try (InputStream image = in) {
+            return ImageIO.read(image);
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013 [name of copyright owner]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.docbook4j;
+
+import com.google.code.docbook4j.renderer.HTMLRenderer;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.vfs2.FileObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestIncrementalChunks {
+
+    private static final String book = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<book version=\"5.0\" xmlns=\"http://docbook.org/ns/docbook\""
+            + " xmlns:xi=\"http://www.w3.org/2001/XInclude\">\n"
+            + "<title>Book</title>\n"
+            + "<chapter xml:id=\"first\"><title>First</title><para>One.</para></chapter>\n"
+            + "<xi:include href=\"second.xml\"/>\n"
+            + "</book>\n";
+
+    private static String chapter(String title, String text) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<chapter version=\"5.0\" xmlns=\"http://docbook.org/ns/docbook\""
+                + " xml:id=\"second\"><title>" + title + "</title><para>" + text
+                + "</para></chapter>\n";
+    }
+
+    @Test
+    public void testOnlyChangedChunksRendered() throws Throwable {
+        File dir = new File("target/testout/incremental");
+        FileUtils.deleteDirectory(dir);
+        File src = new File(dir, "src");
+        File out = new File(dir, "out");
+        FileUtils.writeStringToFile(new File(src, "book.xml"), book, "UTF-8");
+        File second = new File(src, "second.xml");
+        FileUtils.writeStringToFile(second, chapter("Second", "Two."), "UTF-8");
+        String xml = new File(src, "book.xml").getAbsolutePath();
+
+        List<String> all = names(HTMLRenderer.create(xml)
+                .renderChangedChunks(out.getAbsolutePath()));
+        Assert.assertTrue(all.contains("index.html"));
+        Assert.assertTrue(all.size() >= 3);
+
+        Assert.assertTrue(HTMLRenderer.create(xml)
+                .renderChangedChunks(out.getAbsolutePath()).isEmpty());
+
+        FileUtils.writeStringToFile(second, chapter("Second", "Changed."), "UTF-8");
+        List<String> changed = names(HTMLRenderer.create(xml)
+                .renderChangedChunks(out.getAbsolutePath()));
+        Assert.assertEquals(1, changed.size());
+        Assert.assertFalse(changed.contains("index.html"));
+        Assert.assertTrue(FileUtils.readFileToString(new File(out, changed.get(0)),
+                "UTF-8").contains("Changed."));
+
+        FileUtils.writeStringToFile(second, chapter("Renamed", "Changed."), "UTF-8");
+        Assert.assertEquals(all, names(HTMLRenderer.create(xml)
+                .renderChangedChunks(out.getAbsolutePath())));
+    }
+
+    private static List<String> names(List<FileObject> files) {
+        List<String> names = new ArrayList<String>();
+        for (FileObject file : files)
+            names.add(file.getName().getBaseName());
+        return names;
+    }
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2013 [name of copyright owner]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.docbook4j;
+
+import com.google.code.docbook4j.cache.LruCache;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestLruCache {
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        LruCache<String, String> cache = new LruCache<String, String>(2);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.get("a");
+        cache.put("c", "3");
+
+        Assert.assertEquals("1", cache.get("a"));
+        Assert.assertNull(cache.get("b"));
+        Assert.assertEquals("3", cache.get("c"));
+        Assert.assertEquals(1, cache.getStatistics().getEvictionCount());
+        Assert.assertEquals(3, cache.getStatistics().getHitCount());
+        Assert.assertEquals(1, cache.getStatistics().getMissCount());
+    }
+
+    @Test
+    public void testBoundedByWeight() {
+        LruCache<String, byte[]> cache = new LruCache<String, byte[]>(10,
+                value -> value.length);
+        cache.put("a", new byte[4]);
+        cache.put("b", new byte[4]);
+        cache.put("c", new byte[4]);
+        cache.put("huge", new byte[11]);
+
+        Assert.assertNull(cache.get("a"));
+        Assert.assertNull(cache.get("huge"));
+        Assert.assertEquals(2, cache.getStatistics().getSize());
+        Assert.assertEquals(8, cache.getStatistics().getWeight());
+    }
+
+}
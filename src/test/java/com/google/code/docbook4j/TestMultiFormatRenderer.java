@@ -0,0 +1,54 @@
+/*
+ * Copyright 2013 [name of copyright owner]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.docbook4j;
+
+import com.google.code.docbook4j.renderer.MultiFormatRenderer;
+import com.google.code.docbook4j.renderer.MultiFormatRenderer.Format;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.Map;
+
+public class TestMultiFormatRenderer {
+
+    private static final String source = "zip:"
+            + new File("src/test/resources/testing-default-xsl.zip").getAbsolutePath()
+            + "!testing/manual.xml";
+
+    @Test
+    public void testAllFormats() throws Throwable {
+        Map<Format, InputStream> documents = MultiFormatRenderer.create(source)
+                .variable("project", BaseDocbook4JTest.Project.create())
+                .render();
+
+        Assert.assertEquals(3, documents.size());
+        Assert.assertTrue(read(documents.get(Format.HTML)).contains("Test Project"));
+        Assert.assertTrue(read(documents.get(Format.PDF)).startsWith("%PDF"));
+        Assert.assertTrue(read(documents.get(Format.RTF)).startsWith("{\\rtf"));
+    }
+
+    private static String read(InputStream in) throws Throwable {
+        try {
+            return IOUtils.toString(in, "ISO-8859-1");
+        } finally {
+            in.close();
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2013 [name of copyright owner]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.docbook4j;
+
+import com.google.code.docbook4j.cache.Digests;
+import com.google.code.docbook4j.cache.OutputCache;
+import com.google.code.docbook4j.renderer.HTMLRenderer;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+
+public class TestOutputCache {
+
+    private static final String source = "zip:"
+            + new File("src/test/resources/testing-default-xsl.zip").getAbsolutePath()
+            + "!testing/manual.xml";
+
+    @Test
+    public void testRepeatedRenderServedFromCache() throws Throwable {
+        File dir = new File("target/testout/output-cache");
+        FileUtils.deleteDirectory(dir);
+        OutputCache cache = OutputCache.create(dir, 10 * 1024 * 1024);
+
+        String first = render(cache, "Project");
+        String second = render(cache, "Project");
+        Assert.assertEquals(first, second);
+        Assert.assertEquals(1, cache.getStatistics().getHitCount());
+        Assert.assertEquals(1, cache.getStatistics().getMissCount());
+
+        String renamed = render(cache, "Renamed");
+        Assert.assertTrue(renamed.contains("Renamed"));
+        Assert.assertEquals(2, cache.getStatistics().getMissCount());
+        Assert.assertEquals(2, cache.getStatistics().getSize());
+
+        // entries are found again by a new cache on the same directory
+        OutputCache reopened = OutputCache.create(dir, 10 * 1024 * 1024);
+        Assert.assertEquals(2, reopened.getStatistics().getSize());
+        reopened.purge();
+        Assert.assertEquals(0, reopened.getStatistics().getSize());
+        Assert.assertEquals(0, dir.list().length);
+    }
+
+    @Test
+    public void testChangedResourcesRenderedAgain() throws Throwable {
+        File dir = new File("target/testout/output-cache-resources");
+        FileUtils.deleteDirectory(dir);
+        File css = new File(dir, "style.css");
+        FileUtils.writeStringToFile(css, "p { color: red; }", "UTF-8");
+        css.setLastModified(1000000000000L);
+        File xsl = new File(dir, "style.xsl");
+        FileUtils.writeStringToFile(xsl, "<xsl:stylesheet version='1.0'"
+                + " xmlns:xsl='http://www.w3.org/1999/XSL/Transform'"
+                + " xmlns:u='xalan://com.google.code.docbook4j.XSLTUtils'>"
+                + "<xsl:import href='res:xsl/docbook/xhtml/docbook.xsl'/>"
+                + "<xsl:template name='user.head.content'><style type='text/css'>"
+                + "<xsl:value-of select=\"u:dumpCss('" + dir.toURI()
+                + "', 'style.css')\"/></style></xsl:template></xsl:stylesheet>",
+                "UTF-8");
+        OutputCache cache = OutputCache.create(new File(dir, "cache"), 10 * 1024 * 1024);
+        HTMLRenderer renderer = HTMLRenderer.create(source, xsl.toURI().toString())
+                .variable("project", BaseDocbook4JTest.Project.create())
+                .outputCache(cache);
+
+        Assert.assertTrue(BaseDocbook4JTest.render(renderer).contains("color: red"));
+        Assert.assertTrue(BaseDocbook4JTest.render(renderer).contains("color: red"));
+        Assert.assertEquals(1, cache.getStatistics().getHitCount());
+
+        FileUtils.writeStringToFile(css, "p { color: blue; }", "UTF-8");
+        css.setLastModified(1000000001000L);
+        Assert.assertTrue(BaseDocbook4JTest.render(renderer).contains("color: blue"));
+        Assert.assertEquals(1, cache.getStatistics().getHitCount());
+        Assert.assertEquals(1, cache.getStatistics().getSize());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedFiles() throws Throwable {
+        File dir = new File("target/testout/output-cache-eviction");
+        FileUtils.deleteDirectory(dir);
+        OutputCache cache = OutputCache.create(dir, 10);
+
+        cache.put("a", new ByteArrayInputStream(new byte[4]));
+        cache.put("b", new ByteArrayInputStream(new byte[4]));
+        IOUtils.closeQuietly(cache.get("a"));
+        cache.put("c", new ByteArrayInputStream(new byte[4]));
+        cache.put("d", new ByteArrayInputStream(new byte[11]));
+
+        Assert.assertFalse(new File(dir, "b").exists());
+        Assert.assertFalse(new File(dir, "d").exists());
+        Assert.assertNull(cache.get("b"));
+        Assert.assertEquals(1, cache.getStatistics().getEvictionCount());
+        Assert.assertEquals(8, cache.getStatistics().getWeight());
+    }
+
+    @Test
+    public void testOnlyEntriesAdopted() throws Throwable {
+        File dir = new File("target/testout/output-cache-foreign");
+        FileUtils.deleteDirectory(dir);
+        File foreign = new File(dir, "notes.txt");
+        FileUtils.writeStringToFile(foreign, "not a cache entry", "UTF-8");
+        File foreignTemp = new File(dir, ".tmp-notes");
+        FileUtils.writeStringToFile(foreignTemp, "not a temp file", "UTF-8");
+        String key = Digests.sha256(new byte[0]);
+        FileUtils.writeByteArrayToFile(new File(dir, key), new byte[4]);
+
+        OutputCache cache = OutputCache.create(dir, 10);
+        Assert.assertEquals(1, cache.getStatistics().getSize());
+        Assert.assertTrue(foreignTemp.exists());
+
+        cache.purge();
+        Assert.assertTrue(foreign.exists());
+        Assert.assertFalse(new File(dir, key).exists());
+    }
+
+    private static String render(OutputCache cache, String name) throws Throwable {
+        BaseDocbook4JTest.Project project = BaseDocbook4JTest.Project.create();
+        project.setName(name);
+        try (InputStream in = HTMLRenderer.create(source)
+                .variable("project", project)
+                .outputCache(cache)
+                .render()) {
+            return IOUtils.toString(in, "UTF-8");
+        }
+    }
+
+}
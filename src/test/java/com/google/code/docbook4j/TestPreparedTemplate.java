@@ -0,0 +1,49 @@
+/*
+ * Copyright 2013 [name of copyright owner]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.docbook4j;
+
+import com.google.code.docbook4j.renderer.HTMLRenderer;
+import com.google.code.docbook4j.renderer.PreparedTemplate;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+
+public class TestPreparedTemplate {
+
+    private static final String source = "zip:"
+            + new File("src/test/resources/testing-default-xsl.zip").getAbsolutePath()
+            + "!testing/manual.xml";
+
+    @Test
+    public void testRenderedLikeSource() throws Throwable {
+        BaseDocbook4JTest.Project project = BaseDocbook4JTest.Project.create();
+        PreparedTemplate template = HTMLRenderer.create(source).prepare();
+        Assert.assertTrue(template.getEventCount() > 0);
+
+        String expected = BaseDocbook4JTest.render(HTMLRenderer.create(source)
+                .variable("project", project));
+        String actual = BaseDocbook4JTest.render(HTMLRenderer.create().template(template)
+                .variable("project", project));
+        Assert.assertEquals(expected, actual);
+
+        project.setName("Other Project");
+        String out = BaseDocbook4JTest.render(HTMLRenderer.create().template(template)
+                .variable("project", project));
+        Assert.assertTrue(out.contains("Other Project"));
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2013 [name of copyright owner]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.docbook4j;
+
+import com.google.code.docbook4j.renderer.PDFRenderer;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class TestRenderAsync {
+
+    private static final String source = "zip:"
+            + new File("src/test/resources/testing-default-xsl.zip").getAbsolutePath()
+            + "!testing/manual.xml";
+
+    @Test
+    public void testRenderAsync() throws Throwable {
+        CompletableFuture<InputStream> future = PDFRenderer.create(source)
+                .variable("project", BaseDocbook4JTest.Project.create())
+                .renderAsync();
+        try (InputStream in = future.get(60, TimeUnit.SECONDS)) {
+            Assert.assertTrue(IOUtils.toByteArray(in).length > 0);
+        }
+    }
+
+    @Test
+    public void testCancelStopsRender() throws Throwable {
+        AtomicReference<Runnable> task = new AtomicReference<Runnable>();
+        CancellingProject project = new CancellingProject();
+        CompletableFuture<InputStream> future = PDFRenderer.create(source)
+                .variable("project", project)
+                .renderAsync(task::set);
+
+        // cancelled by the first expression evaluated
+        project.future = future;
+        task.get().run();
+
+        Assert.assertTrue(future.isCancelled());
+        Assert.assertEquals(1, project.evaluations);
+    }
+
+    public static final class CancellingProject {
+
+        private CompletableFuture<InputStream> future;
+
+        private int evaluations;
+
+        private String evaluate(String value) {
+            evaluations++;
+            future.cancel(true);
+            return value;
+        }
+
+        public String getGroupId() {
+            return evaluate("com.google.code");
+        }
+
+        public String getArtifactId() {
+            return evaluate("docbook4j");
+        }
+
+        public String getVersion() {
+            return evaluate("1.1.1");
+        }
+
+        public String getName() {
+            return evaluate("Test Project");
+        }
+
+        public String getInceptionYear() {
+            return evaluate("2012");
+        }
+    }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2013 [name of copyright owner]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.docbook4j;
+
+import com.google.code.docbook4j.renderer.HTMLRenderer;
+import com.google.code.docbook4j.renderer.PDFRenderer;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+public class TestRenderToStream {
+
+    private static final String source = "zip:"
+            + new File("src/test/resources/testing-default-xsl.zip").getAbsolutePath()
+            + "!testing/manual.xml";
+
+    @Test
+    public void testPDFToStream() throws Throwable {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PDFRenderer.create(source)
+                .variable("project", BaseDocbook4JTest.Project.create())
+                .render(out);
+
+        Assert.assertTrue(new String(out.toByteArray(), 0, 4, "ISO-8859-1")
+                .startsWith("%PDF"));
+    }
+
+    @Test
+    public void testHTMLToChannel() throws Throwable {
+        HTMLRenderer renderer = HTMLRenderer.create(source)
+                .variable("project", BaseDocbook4JTest.Project.create());
+        String expected;
+        try (InputStream in = renderer.render()) {
+            expected = IOUtils.toString(in, "UTF-8");
+        }
+
+        File file = new File("target/testout/render-to-channel.html");
+        file.getParentFile().mkdirs();
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            renderer.render(channel);
+        }
+
+        Assert.assertEquals(expected, FileUtils.readFileToString(file, "UTF-8"));
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013 [name of copyright owner]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.docbook4j;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.xmlgraphics.io.Resource;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+public class TestResourceCache {
+
+    @Test
+    public void testResourcesServedFromCache() throws Throwable {
+        File dir = new File("target/testout/resource-cache");
+        dir.mkdirs();
+        File font = new File(dir, "font.ttf");
+        FileUtils.writeStringToFile(font, "first", "UTF-8");
+        font.setLastModified(1000000000000L);
+        String zip = "zip:" + new File("src/test/resources/testing-default-xsl.zip")
+                .getAbsolutePath() + "!/testing";
+
+        ResourceCache previous = VfsResourceResolver.getResourceCache();
+        ResourceCache cache = new ResourceCache(1024 * 1024);
+        VfsResourceResolver.setResourceCache(cache);
+        try {
+            VfsResourceResolver resolver = new VfsResourceResolver(zip, null);
+            Assert.assertEquals("first", read(resolver.getResource(font.toURI())));
+            Assert.assertEquals("first", read(resolver.getResource(font.toURI())));
+            Assert.assertEquals(7049, IOUtils.toByteArray(resolver
+                    .getResource(new URI("images/logo.png"))).length);
+            Assert.assertEquals(7049, IOUtils.toByteArray(resolver
+                    .getResource(new URI("images/logo.png"))).length);
+            Assert.assertEquals(2, cache.getStatistics().getHitCount());
+            Assert.assertEquals(2, cache.getStatistics().getSize());
+
+            // mapped files are replaced rather than rewritten in place
+            File replacement = new File(dir, "font.ttf.new");
+            FileUtils.writeStringToFile(replacement, "second", "UTF-8");
+            replacement.setLastModified(1000000001000L);
+            Files.move(replacement.toPath(), font.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            Assert.assertEquals("second", read(resolver.getResource(font.toURI())));
+
+            // too big to be cached, so not mapped
+            File big = new File(dir, "big.ttf");
+            FileUtils.writeByteArrayToFile(big, new byte[512 * 1024]);
+            Assert.assertEquals(512 * 1024, IOUtils.toByteArray(resolver
+                    .getResource(big.toURI())).length);
+            Assert.assertEquals(2, cache.getStatistics().getSize());
+        } finally {
+            VfsResourceResolver.setResourceCache(previous);
+        }
+    }
+
+    private static String read(Resource resource) throws Exception {
+        try (Resource in = resource) {
+            return IOUtils.toString(in, "UTF-8");
+        }
+    }
+
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2013 [name of copyright owner]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.docbook4j;
+
+import com.google.code.docbook4j.cache.CacheStatistics;
+import com.google.code.docbook4j.renderer.HTMLRenderer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+
+public class TestSAXParserPool {
+
+    private static final String source = "zip:"
+            + new File("src/test/resources/testing-default-xsl.zip").getAbsolutePath()
+            + "!testing/manual.xml";
+
+    @Test
+    public void testParsersReused() throws Throwable {
+        HTMLRenderer renderer = HTMLRenderer.create(source)
+                .variable("project", BaseDocbook4JTest.Project.create());
+        BaseDocbook4JTest.render(renderer);
+        CacheStatistics before = renderer.getParserPool().getStatistics();
+        BaseDocbook4JTest.render(renderer);
+        CacheStatistics after = renderer.getParserPool().getStatistics();
+
+        Assert.assertEquals(before.getHitCount() + 1, after.getHitCount());
+        Assert.assertEquals(before.getMissCount(), after.getMissCount());
+        Assert.assertTrue(after.getSize() > 0);
+    }
+
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2013 [name of copyright owner]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.docbook4j;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.File;
+
+public class TestStylesheetCache {
+
+    @Test
+    public void testResolvedStylesheetsServedFromCache() throws Throwable {
+        File dir = new File("target/testout/stylesheet-cache");
+        dir.mkdirs();
+        File xsl = new File(dir, "common.xsl");
+        FileUtils.writeStringToFile(xsl, "<xsl:stylesheet/>", "UTF-8");
+        String base = new File(dir, "main.xsl").toURI().toString();
+
+        StylesheetCache cache = new StylesheetCache(1024 * 1024);
+        try (XslURIResolver first = new XslURIResolver(cache);
+             XslURIResolver second = new XslURIResolver(cache)) {
+            first.resolve("common.xsl", base);
+            StreamSource source = (StreamSource) second
+                    .resolve("common.xsl", base);
+
+            Assert.assertEquals("<xsl:stylesheet/>",
+                    IOUtils.toString(source.getInputStream(), "UTF-8"));
+            Assert.assertTrue(source.getSystemId().endsWith("common.xsl"));
+        }
+        Assert.assertEquals(1, cache.getStatistics().getHitCount());
+        Assert.assertEquals(1, cache.getStatistics().getMissCount());
+    }
+
+}
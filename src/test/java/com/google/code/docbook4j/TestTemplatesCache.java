@@ -0,0 +1,99 @@
+package com.google.code.docbook4j;
+
+import com.google.code.docbook4j.renderer.TemplatesCache;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.vfs2.FileObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.xml.transform.Templates;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+public class TestTemplatesCache {
+
+    private static final String main = "<xsl:stylesheet version=\"1.0\" "
+            + "xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">"
+            + "<xsl:import href=\"imported.xsl\"/></xsl:stylesheet>";
+
+    private static final String imported = "<xsl:stylesheet version=\"1.0\" "
+            + "xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">"
+            + "<xsl:template match=\"/\">%s</xsl:template></xsl:stylesheet>";
+
+    @Test
+    public void testCompiledOnce() throws Throwable {
+        TemplatesCache cache = TemplatesCache.getInstance();
+        FileObject xsl = FileObjectUtils
+                .resolveFile("res:xsl/docbook/xhtml/docbook.xsl");
+
+        Templates first = cache.getTemplates(xsl);
+        long hits = cache.getHitCount();
+        Templates second = cache.getTemplates(xsl);
+
+        Assert.assertSame(first, second);
+        Assert.assertEquals(hits + 1, cache.getHitCount());
+    }
+
+    @Test
+    public void testPrecompileDefaults() throws Throwable {
+        TemplatesCache cache = TemplatesCache.getInstance();
+        cache.precompileDefaults().get();
+
+        long misses = cache.getMissCount();
+        cache.getTemplates(FileObjectUtils
+                .resolveFile("res:xsl/docbook/fo/docbook.xsl"));
+        Assert.assertEquals(misses, cache.getMissCount());
+    }
+
+    @Test
+    public void testRecompiledWhenImportChanges() throws Throwable {
+        File dir = new File("target/testout/templates-cache");
+        dir.mkdirs();
+        File mainFile = new File(dir, "main.xsl");
+        File importedFile = new File(dir, "imported.xsl");
+        FileUtils.writeStringToFile(mainFile, main, "UTF-8");
+        FileUtils.writeStringToFile(importedFile,
+                String.format(imported, "one"), "UTF-8");
+
+        TemplatesCache cache = TemplatesCache.getInstance();
+        FileObject xsl = FileObjectUtils
+                .resolveFile(mainFile.toURI().toString());
+        Templates first = cache.getTemplates(xsl);
+        Assert.assertSame(first, cache.getTemplates(xsl));
+
+        FileUtils.writeStringToFile(importedFile,
+                String.format(imported, "two"), "UTF-8");
+        importedFile.setLastModified(importedFile.lastModified() + 2000);
+        xsl.refresh();
+
+        Assert.assertNotSame(first, cache.getTemplates(xsl));
+    }
+
+    @Test
+    public void testRecheckInterval() throws Throwable {
+        File dir = new File("target/testout/templates-cache-recheck");
+        dir.mkdirs();
+        File mainFile = new File(dir, "main.xsl");
+        File importedFile = new File(dir, "imported.xsl");
+        FileUtils.writeStringToFile(mainFile, main, "UTF-8");
+        FileUtils.writeStringToFile(importedFile,
+                String.format(imported, "one"), "UTF-8");
+
+        TemplatesCache cache = TemplatesCache.getInstance();
+        FileObject xsl = FileObjectUtils
+                .resolveFile(mainFile.toURI().toString());
+        Templates first = cache.getTemplates(xsl);
+        cache.setRecheckInterval(1, TimeUnit.HOURS);
+        try {
+            FileUtils.writeStringToFile(importedFile,
+                    String.format(imported, "two"), "UTF-8");
+            importedFile.setLastModified(importedFile.lastModified() + 2000);
+            xsl.refresh();
+            Assert.assertSame(first, cache.getTemplates(xsl));
+        } finally {
+            cache.setRecheckInterval(0, TimeUnit.MILLISECONDS);
+        }
+        Assert.assertNotSame(first, cache.getTemplates(xsl));
+    }
+
+}
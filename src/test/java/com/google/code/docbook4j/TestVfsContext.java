@@ -0,0 +1,53 @@
+/*
+ * Copyright 2013 [name of copyright owner]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.docbook4j;
+
+import com.google.code.docbook4j.renderer.HTMLRenderer;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.vfs2.CacheStrategy;
+import org.apache.commons.vfs2.FileSystemManager;
+import org.apache.commons.vfs2.cache.SoftRefFilesCache;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+
+public class TestVfsContext {
+
+    private static final String source = "zip:"
+            + new File("src/test/resources/testing-default-xsl.zip").getAbsolutePath()
+            + "!testing/manual.xml";
+
+    @Test
+    public void testRenderWithOwnManager() throws Throwable {
+        try (VfsContext context = VfsContext.create(null,
+                CacheStrategy.ON_RESOLVE, new SoftRefFilesCache())) {
+            HTMLRenderer renderer = HTMLRenderer.create(source)
+                    .variable("project", BaseDocbook4JTest.Project.create())
+                    .vfsContext(context);
+            try (InputStream in = renderer.render()) {
+                Assert.assertTrue(IOUtils.toByteArray(in).length > 0);
+            }
+
+            FileSystemManager manager = FileObjectUtils.resolveFile(source)
+                    .getFileSystem().getFileSystemManager();
+            Assert.assertNotSame(context.getManager(), manager);
+            Assert.assertSame(FileObjectUtils.getDefaultManager(), manager);
+        }
+    }
+
+}
@@ -19,6 +19,7 @@ package com.google.code.docbook4j;
 import com.google.code.docbook4j.renderer.HTMLRenderer;
 import com.google.code.docbook4j.renderer.PDFRenderer;
 import com.google.code.docbook4j.renderer.RTFRenderer;
+import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.File;
@@ -45,6 +46,16 @@ public class TestWithDefaultXsl extends BaseDocbook4JTest {
         writeToFile(pdfRenderer.render(), "01.pdf");
     }
 
+    @Test
+    public void testPDFGenerationWithFoDump() throws Throwable {
+        File fo = new File("target/testout/default/01.fo");
+        fo.delete();
+        PDFRenderer pdfRenderer = PDFRenderer.create(source).variable(
+                "project", Project.create()).dumpFo(fo.toURI().toString());
+        writeToFile(pdfRenderer.render(), "02.pdf");
+        Assert.assertTrue(fo.length() > 0);
+    }
+
     @Test
     public void testRTFGeneration() throws Throwable {
         RTFRenderer rtfRenderer = RTFRenderer.create(source).variable(
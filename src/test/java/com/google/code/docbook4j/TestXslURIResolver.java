@@ -0,0 +1,30 @@
+package com.google.code.docbook4j;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.InputStream;
+
+public class TestXslURIResolver {
+
+    private static final String href = "res:xsl/docbook/xhtml/docbook.xsl";
+
+    @Test
+    public void testHandlesReleasedWhenStreamsClosed() throws Throwable {
+        try (XslURIResolver resolver = new XslURIResolver()) {
+            for (int i = 0; i < 3; i++) {
+                StreamSource source = (StreamSource) resolver.resolve(href, null);
+                try (InputStream in = source.getInputStream()) {
+                    Assert.assertEquals(1, resolver.getOpenHandleCount());
+                    IOUtils.toByteArray(in);
+                }
+                Assert.assertEquals(0, resolver.getOpenHandleCount());
+            }
+            Assert.assertEquals(1, resolver.getPeakOpenHandleCount());
+            Assert.assertEquals(1, resolver.getResolvedFiles().size());
+        }
+    }
+
+}
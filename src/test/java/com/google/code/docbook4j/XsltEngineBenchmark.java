@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013 [name of copyright owner]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.code.docbook4j;
+
+import com.google.code.docbook4j.renderer.HTMLRenderer;
+import com.google.code.docbook4j.renderer.PDFRenderer;
+import com.google.code.docbook4j.renderer.Renderer;
+import com.google.code.docbook4j.renderer.XsltEngine;
+import com.google.code.docbook4j.renderer.XsltEngines;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.function.Function;
+
+/**
+ * Compares the built-in xslt engines on the test manual. Not a unit test; run
+ * it from the test classpath, e.g.
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.google.code.docbook4j.XsltEngineBenchmark \
+ *     -Dexec.args="20"
+ * </pre>
+ * The first argument is the number of warm renders per engine and format.
+ * The optional second and third arguments are custom html and fo stylesheets
+ * to benchmark instead of the bundled ones (the bundled stylesheets cannot be
+ * compiled by XSLTC). For every engine the time of the first render
+ * (including stylesheet compilation) and the average time of the warm renders
+ * are printed.
+ */
+public class XsltEngineBenchmark {
+
+    private static final String source = "zip:"
+            + new File("src/test/resources/testing-default-xsl.zip").getAbsolutePath()
+            + "!testing/manual.xml";
+
+    public static void main(String[] args) throws Throwable {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        String htmlXsl = args.length > 1 ? args[1] : null;
+        String foXsl = args.length > 2 ? args[2] : null;
+
+        System.out.printf("%-8s %-6s %12s %12s%n", "engine", "format",
+                "first (ms)", "warm (ms)");
+        for (XsltEngines engine : new XsltEngines[]{XsltEngines.XALAN,
+                XsltEngines.XSLTC, XsltEngines.SAXON}) {
+            run(engine, "html", iterations, e -> HTMLRenderer
+                    .create(source, htmlXsl).variable("project", BaseDocbook4JTest.Project.create())
+                    .xsltEngine(e));
+            run(engine, "pdf", iterations, e -> PDFRenderer
+                    .create(source, foXsl).variable("project", BaseDocbook4JTest.Project.create())
+                    .xsltEngine(e));
+        }
+    }
+
+    private static void run(XsltEngine engine, String format, int iterations,
+                            Function<XsltEngine, Renderer<?>> renderer) {
+        try {
+            long first = render(renderer.apply(engine));
+            long total = 0;
+            for (int i = 0; i < iterations; i++) {
+                total += render(renderer.apply(engine));
+            }
+            System.out.printf("%-8s %-6s %12d %12d%n", engine.getName(),
+                    format, first, total / Math.max(iterations, 1));
+        } catch (Throwable e) {
+            System.out.printf("%-8s %-6s unsupported: %s%n", engine.getName(),
+                    format, e);
+        }
+    }
+
+    private static long render(Renderer<?> renderer) throws Throwable {
+        long start = System.nanoTime();
+        try (InputStream in = renderer.render()) {
+            IOUtils.toByteArray(in);
+        }
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+}